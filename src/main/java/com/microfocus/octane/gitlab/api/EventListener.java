@@ -47,25 +47,31 @@ import com.hp.octane.integrations.dto.scm.SCMRepository;
 import com.hp.octane.integrations.dto.scm.SCMType;
 import com.hp.octane.integrations.dto.snapshots.CIBuildResult;
 import com.microfocus.octane.gitlab.app.ApplicationSettings;
+import com.microfocus.octane.gitlab.helpers.CommitDiffsFetcher;
 import com.microfocus.octane.gitlab.helpers.GitLabApiWrapper;
+import com.microfocus.octane.gitlab.helpers.JobCiIdResolver;
+import com.microfocus.octane.gitlab.helpers.ManagedExecutors;
+import com.microfocus.octane.gitlab.helpers.MergeRequestEventDebouncer;
 import com.microfocus.octane.gitlab.helpers.ParsedPath;
 import com.microfocus.octane.gitlab.helpers.PathType;
+import com.microfocus.octane.gitlab.helpers.PipelineParameterIndex;
+import com.microfocus.octane.gitlab.helpers.PullRequestBatcher;
 import com.microfocus.octane.gitlab.helpers.PullRequestHelper;
+import com.microfocus.octane.gitlab.helpers.RefCatalog;
 import com.microfocus.octane.gitlab.helpers.TestResultsHelper;
 import com.microfocus.octane.gitlab.helpers.VariablesHelper;
 import com.microfocus.octane.gitlab.model.ConfigStructure;
 import com.microfocus.octane.gitlab.model.MergeRequestEventType;
+import com.microfocus.octane.gitlab.services.GitlabServices;
 import com.microfocus.octane.gitlab.testresults.GherkinTestResultsProvider;
 import com.microfocus.octane.gitlab.testresults.JunitTestResultsProvider;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.gitlab4j.api.GitLabApi;
 import org.gitlab4j.api.GitLabApiException;
 import org.gitlab4j.api.models.Commit;
 import org.gitlab4j.api.models.CompareResults;
-import org.gitlab4j.api.models.Diff;
 import org.gitlab4j.api.models.Job;
 import org.gitlab4j.api.models.MergeRequest;
 import org.gitlab4j.api.models.Project;
@@ -97,13 +103,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 
 @Component
 @Path("/events")
@@ -111,17 +119,43 @@ public class EventListener {
     public static final  String                                     LISTENING         = "Listening to GitLab events!!!";
     private static final Logger                                     log               = LogManager.getLogger(EventListener.class);
     private static final DTOFactory                                 dtoFactory        = DTOFactory.getInstance();
-    private final        GitLabApi                                  gitLabApi;
+    private static final Set<String>                                PROJECT_SYSTEM_EVENTS = Set.of("project_create",
+            "project_update", "project_rename", "project_transfer", "project_destroy", "user_add_to_team",
+            "user_update_for_team", "user_remove_from_team");
+    private static final Set<String>                                PROJECT_PATH_EVENTS = Set.of("project_rename",
+            "project_transfer", "project_destroy");
+    private static final Set<String>                                GROUP_MEMBER_EVENTS   = Set.of("user_add_to_group",
+            "user_update_for_group");
+    private static final int                                        TEST_RESULTS_QUEUE_CAPACITY = 64;
+    private final        GitLabApiWrapper                           gitLabApiWrapper;
     private final        ApplicationSettings                        applicationSettings;
+    private final        CommitDiffsFetcher                         commitDiffsFetcher;
+    private final        PipelineParameterIndex                     pipelineParameterIndex;
+    private final        GitlabServices                             gitlabServices;
+    private final        RefCatalog                                 refCatalog;
+    private final        PullRequestBatcher                         pullRequestBatcher;
+    private final        MergeRequestEventDebouncer                 mergeRequestEventDebouncer;
+    private final        ExecutorService                            testResultsExecutor;
     private final        Map<Long, JSONArray>                       pipelineVariables = new ConcurrentHashMap<>();
     private final        List<Long>                                 sentRoots         = new ArrayList<>();
     private final        Map<Long, List<Pair<CIEvent, JSONObject>>> noRootEvents      = new ConcurrentHashMap<>();
     private final        Map<Long, String>                          lastJobEvents     = new ConcurrentHashMap<>();
 
     @Autowired
-    public EventListener(ApplicationSettings applicationSettings, GitLabApiWrapper gitLabApiWrapper) {
+    public EventListener(ApplicationSettings applicationSettings, GitLabApiWrapper gitLabApiWrapper,
+                         CommitDiffsFetcher commitDiffsFetcher, PipelineParameterIndex pipelineParameterIndex,
+                         GitlabServices gitlabServices, RefCatalog refCatalog, PullRequestBatcher pullRequestBatcher,
+                         MergeRequestEventDebouncer mergeRequestEventDebouncer, ManagedExecutors managedExecutors) {
         this.applicationSettings = applicationSettings;
-        this.gitLabApi = gitLabApiWrapper.getGitLabApi();
+        this.gitLabApiWrapper = gitLabApiWrapper;
+        this.commitDiffsFetcher = commitDiffsFetcher;
+        this.pipelineParameterIndex = pipelineParameterIndex;
+        this.gitlabServices = gitlabServices;
+        this.refCatalog = refCatalog;
+        this.pullRequestBatcher = pullRequestBatcher;
+        this.mergeRequestEventDebouncer = mergeRequestEventDebouncer;
+        this.testResultsExecutor = managedExecutors.cpu("testResults", Runtime.getRuntime().availableProcessors(),
+                TEST_RESULTS_QUEUE_CAPACITY);
     }
 
     @POST
@@ -141,17 +175,37 @@ public class EventListener {
     private Response handleEvent(JSONObject event) {
         log.traceEntry();
         try {
+            if (isProjectSystemEvent(event)) {
+                return handleProjectSystemEvent(event);
+            }
+
+            if (isGroupMemberEvent(event)) {
+                gitlabServices.onGroupMemberAdded(event.getLong("group_id"), event.getLong("user_id"));
+                return Response.ok().build();
+            }
+
             if (isMergeRequestEvent(event)) {
                 return handleMergeRequestEvent(event);
             }
 
+            if (isPushEvent(event) || isTagPushEvent(event)) {
+                refCatalog.onPushEvent(event);
+                if (isTagPushEvent(event)) {
+                    return Response.ok().build();
+                }
+            }
+
             List<String> warnings = new ArrayList<>();
+            if (isPipelineEvent(event)) {
+                pipelineParameterIndex.onPipelineEvent(event);
+            }
             CIEventType eventType = getEventType(event);
             if (eventType == CIEventType.UNDEFINED || eventType == CIEventType.QUEUED) {
                 return Response.ok().build();
             }
 
             CIEvent ciEvent = getCIEvent(event);
+            registerJobIdentity(event, ciEvent);
 
             if (ciEvent.getResult() == null) {
                 ciEvent.setResult(CIBuildResult.UNAVAILABLE);
@@ -169,7 +223,7 @@ public class EventListener {
                 }
 
                 if (ciEvent.getProject().contains(ParsedPath.PIPELINE_JOB_CI_ID_PREFIX)) {
-                    ParsedPath parsedPath = new ParsedPath(ciEvent.getProject(), gitLabApi, PathType.PIPELINE);
+                    ParsedPath parsedPath = JobCiIdResolver.parse(ciEvent.getProject(), gitLabApiWrapper, PathType.PIPELINE);
 
                     String projectDisplayName = parsedPath.getNameWithNameSpaceForDisplayName() != null ?
                                                 parsedPath.getNameWithNameSpaceForDisplayName() :
@@ -274,9 +328,9 @@ public class EventListener {
 
         if (!isPipelineEvent(event)) {
             long projectId = event.getLong("project_id");
-            Project project = gitLabApi.getProjectApi().getProject(projectId);
+            Project project = gitLabApiWrapper.execute(api -> api.getProjectApi().getProject(projectId));
             long jobId = getEventTargetObjectId(event);
-            Job job = gitLabApi.getJobApi().getJob(projectId, jobId);
+            Job job = gitLabApiWrapper.execute(api -> api.getJobApi().getJob(projectId, jobId));
 
             if (job.getArtifactsFile() != null) {
 
@@ -284,14 +338,18 @@ public class EventListener {
 
                 GherkinTestResultsProvider gherkinTestResultsProvider =
                         GherkinTestResultsProvider.getInstance(applicationSettings);
-                boolean isGherkinTestsExist = gherkinTestResultsProvider.createTestList(project, job,
-                        gitLabApi.getJobApi().downloadArtifactsFile(projectId, job.getId()));
+                InputStream gherkinArtifacts =
+                        gitLabApiWrapper.execute(api -> api.getJobApi().downloadArtifactsFile(projectId, job.getId()));
+                boolean isGherkinTestsExist =
+                        parseTestResults(() -> gherkinTestResultsProvider.createTestList(project, job, gherkinArtifacts));
 
                 //looking for Regular tests
                 if (!isGherkinTestsExist) {
                     JunitTestResultsProvider testResultsProduce = JunitTestResultsProvider.getInstance(applicationSettings);
-                    boolean testResultsExist = testResultsProduce.createTestList(project, job,
-                            gitLabApi.getJobApi().downloadArtifactsFile(projectId, job.getId()));
+                    InputStream junitArtifacts =
+                            gitLabApiWrapper.execute(api -> api.getJobApi().downloadArtifactsFile(projectId, job.getId()));
+                    boolean testResultsExist =
+                            parseTestResults(() -> testResultsProduce.createTestList(project, job, junitArtifacts));
 
                     if (!testResultsExist) {
                         String warning = String.format("No test results found by using the %s pattern",
@@ -305,6 +363,23 @@ public class EventListener {
         return "";
     }
 
+    /**
+     * Parses test results on the bounded pool for CPU work, so a burst of job events does not parse more reports at the
+     * same time than there are processors.
+     */
+    private boolean parseTestResults(Callable<Boolean> parsing) throws GitLabApiException {
+        try {
+            return ManagedExecutors.runOn(testResultsExecutor, parsing);
+        } catch (GitLabApiException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GitLabApiException("Interrupted while parsing test results");
+        } catch (Exception e) {
+            throw new GitLabApiException(e);
+        }
+    }
+
     private long getPipelineId(JSONObject event) {
         if (isBuildEvent(event)) {
             return event.getLong("pipeline_id");
@@ -316,11 +391,11 @@ public class EventListener {
     }
 
     private void sendCodeCoverage(long projectId, Project project, Job job) throws GitLabApiException, IOException {
-        Optional<Variable> coverageReportFilePathVar = VariablesHelper.getProjectVariable(gitLabApi, project.getId(),
+        Optional<Variable> coverageReportFilePathVar = VariablesHelper.getProjectVariable(gitLabApiWrapper, project.getId(),
                 applicationSettings.getConfig().getGeneratedCoverageReportFilePathVariableName());
 
         Map<String, String> projectGroupVariables =
-                VariablesHelper.getProjectGroupVariables(gitLabApi, project, applicationSettings.getConfig());
+                VariablesHelper.getProjectGroupVariables(gitLabApiWrapper, project, applicationSettings.getConfig());
 
         if (coverageReportFilePathVar.isEmpty() &&
             !projectGroupVariables.containsKey(
@@ -334,7 +409,7 @@ public class EventListener {
             String octaneJobId = project.getPathWithNamespace().toLowerCase() + "/" + job.getName();
             String octaneBuildId = job.getId().toString();
 
-            try (InputStream artifactsStream = gitLabApi.getJobApi().downloadArtifactsFile(projectId, job.getId())) {
+            try (InputStream artifactsStream = gitLabApiWrapper.execute(api -> api.getJobApi().downloadArtifactsFile(projectId, job.getId()))) {
                 List<File> coverageResultFiles =
                         TestResultsHelper.extractArtifactsToFiles(artifactsStream, "glob:" + coverageReportFilePattern);
 
@@ -354,36 +429,68 @@ public class EventListener {
         }
     }
 
-    private Response handleMergeRequestEvent(JSONObject event) throws GitLabApiException {
+    private Response handleMergeRequestEvent(JSONObject event) {
         log.info("Merge Request event occurred.");
-        ConfigStructure config = applicationSettings.getConfig();
 
-        if (getMREventType(event).equals(MergeRequestEventType.UNKNOWN)) {
+        MergeRequestEventType eventType = getMREventType(event);
+        if (eventType.equals(MergeRequestEventType.UNKNOWN)) {
             String warning = "Unknown event on merge request has taken place!";
             log.warn(warning);
             return Response.ok().entity(warning).build();
         }
 
-        Project project = gitLabApi.getProjectApi().getProject(event.getJSONObject("project").getLong("id"));
+        long projectId = event.getJSONObject("project").getLong("id");
+        long mergeRequestIid = getEventTargetObjectId(event);
+        mergeRequestEventDebouncer.submit(projectId, mergeRequestIid, isMergeRequestCommitsChange(event, eventType),
+                commitsChanged -> {
+                    try {
+                        sendMergeRequest(projectId, mergeRequestIid, commitsChanged);
+                    } catch (GitLabApiException e) {
+                        log.error("Failed to send merge request " + mergeRequestIid + " of project " + projectId +
+                                  " to Octane", e);
+                    }
+                });
+
+        return Response.ok().build();
+    }
+
+    /**
+     * An update carries {@code oldrev} when it comes with a push; otherwise only a new target branch changes the commits
+     * of a merge request. Opened and reopened merge requests are always read in full.
+     */
+    private boolean isMergeRequestCommitsChange(JSONObject event, MergeRequestEventType eventType) {
+        if (eventType == MergeRequestEventType.OPEN || eventType == MergeRequestEventType.REOPEN) {
+            return true;
+        }
+        JSONObject attributes = event.getJSONObject("object_attributes");
+        if (attributes.has("oldrev") && !attributes.isNull("oldrev")) {
+            return true;
+        }
+        JSONObject changes = event.optJSONObject("changes");
+        return changes != null && changes.has("target_branch");
+    }
+
+    private void sendMergeRequest(long projectId, long mergeRequestIid, boolean commitsChanged) throws GitLabApiException {
+        ConfigStructure config = applicationSettings.getConfig();
+        Project project = gitLabApiWrapper.execute(api -> api.getProjectApi().getProject(projectId));
         Map<String, String> projectGroupVariables =
-                VariablesHelper.getProjectGroupVariables(gitLabApi, project, applicationSettings.getConfig());
+                VariablesHelper.getProjectGroupVariables(gitLabApiWrapper, project, applicationSettings.getConfig());
 
         Optional<Variable> publishMergeRequests =
-                VariablesHelper.getProjectVariable(gitLabApi, project.getId(), config.getPublishMergeRequestsVariableName());
+                VariablesHelper.getProjectVariable(gitLabApiWrapper, project.getId(), config.getPublishMergeRequestsVariableName());
         if (((publishMergeRequests.isEmpty() || !Boolean.parseBoolean(publishMergeRequests.get().getValue())) &&
              (!projectGroupVariables.containsKey(config.getPublishMergeRequestsVariableName()) ||
               !Boolean.parseBoolean(projectGroupVariables.get(config.getPublishMergeRequestsVariableName()))))) {
-            return Response.ok().build();
+            return;
         }
 
         Optional<Variable> destinationWSVar =
-                VariablesHelper.getProjectVariable(gitLabApi, project.getId(), config.getDestinationWorkspaceVariableName());
+                VariablesHelper.getProjectVariable(gitLabApiWrapper, project.getId(), config.getDestinationWorkspaceVariableName());
         String destinationWS;
 
         if (destinationWSVar.isEmpty() && !projectGroupVariables.containsKey(config.getDestinationWorkspaceVariableName())) {
-            String err = "Variable for destination workspace has not been set for project with id" + project.getId();
-            log.error(err);
-            return Response.ok().entity(err).build();
+            log.error("Variable for destination workspace has not been set for project with id" + project.getId());
+            return;
         } else if (destinationWSVar.isPresent()) {
             destinationWS = destinationWSVar.get().getValue();
         } else {
@@ -391,32 +498,37 @@ public class EventListener {
         }
 
         Optional<Variable> useSSHFormatVar =
-                VariablesHelper.getProjectVariable(gitLabApi, project.getId(), config.getUseSSHFormatVariableName());
+                VariablesHelper.getProjectVariable(gitLabApiWrapper, project.getId(), config.getUseSSHFormatVariableName());
         boolean useSSHFormat = useSSHFormatVar.isPresent() && Boolean.parseBoolean(useSSHFormatVar.get().getValue()) ||
                                projectGroupVariables.containsKey(config.getUseSSHFormatVariableName()) &&
                                Boolean.parseBoolean(projectGroupVariables.get(config.getUseSSHFormatVariableName()));
 
         String repoUrl = useSSHFormat ? project.getSshUrlToRepo() : project.getHttpUrlToRepo();
 
-        long mergeRequestId = getEventTargetObjectId(event);
-        MergeRequest mergeRequest = gitLabApi.getMergeRequestApi().getMergeRequest(project.getId(), mergeRequestId);
-
-        List<Commit> mergeRequestCommits = gitLabApi.getMergeRequestApi().getCommits(project.getId(), mergeRequest.getIid());
-        Map<String, List<Diff>> mrCommitDiffs = new HashMap<>();
+        MergeRequest mergeRequest = gitLabApiWrapper.execute(api -> api.getMergeRequestApi().getMergeRequest(project.getId(), mergeRequestIid));
 
-        mergeRequestCommits.forEach(commit -> {
-            try {
-                List<Diff> diffs = gitLabApi.getCommitsApi().getDiff(project.getId(), commit.getId());
-                mrCommitDiffs.put(commit.getId(), diffs);
-            } catch (GitLabApiException e) {
-                log.warn(e.getMessage());
+        //the head commit is checked as well, in case the event of a push was missed
+        CommitDiffsFetcher.CommitDiffs lastSent = mergeRequestEventDebouncer.getLastSent(projectId, mergeRequestIid);
+        CommitDiffsFetcher.CommitDiffs mrCommitDiffs;
+        if (!commitsChanged && lastSent != null &&
+            lastSent.commits().stream().anyMatch(commit -> commit.getId().equals(mergeRequest.getSha()))) {
+            mrCommitDiffs = lastSent;
+            mergeRequestEventDebouncer.countReusedCommits();
+        } else {
+            List<Commit> mergeRequestCommits =
+                    gitLabApiWrapper.execute(api -> api.getMergeRequestApi().getCommits(project.getId(), mergeRequest.getIid()));
+            mrCommitDiffs = commitDiffsFetcher.fetch(project.getId(), mergeRequestCommits,
+                    lastSent == null ? Map.of() : lastSent.diffs());
+            if (mrCommitDiffs.isTruncated()) {
+                log.warn("Merge request " + mergeRequest.getIid() + " of project " + project.getId() + " has " +
+                         mrCommitDiffs.totalCommits() + " commits, only the first " + mrCommitDiffs.commits().size() +
+                         " are sent to Octane");
             }
-        });
-
-        PullRequestHelper.convertAndSendMergeRequestToOctane(mergeRequest, mergeRequestCommits, mrCommitDiffs, repoUrl,
-                destinationWS);
+            mergeRequestEventDebouncer.setLastSent(projectId, mergeRequestIid, mrCommitDiffs);
+        }
 
-        return Response.ok().build();
+        pullRequestBatcher.add(repoUrl, destinationWS,
+                PullRequestHelper.convertMergeRequest(mergeRequest, mrCommitDiffs.commits(), mrCommitDiffs.diffs(), repoUrl));
     }
 
     private CIEvent getScmEvent(JSONObject event) {
@@ -554,6 +666,23 @@ public class EventListener {
         return event.getString("build_name");
     }
 
+    /**
+     * Records the GitLab identity behind the job ids sent to Octane, so its callbacks are resolved without probing.
+     */
+    private void registerJobIdentity(JSONObject event, CIEvent ciEvent) {
+        if (!isPipelineEvent(event) && !isBuildEvent(event)) {
+            return;
+        }
+        if (isPipelineEvent(event)) {
+            JobCiIdResolver.register(ciEvent.getProject(), event.getJSONObject("project").getLong("id"),
+                    getProjectFullPath(event), event.getJSONObject("object_attributes").getString("ref"), null);
+        } else {
+            //the branch of a job is not part of its id, test results are looked up by project and job only
+            JobCiIdResolver.register(ciEvent.getProject(), event.getLong("project_id"), getProjectFullPath(event),
+                    null, event.getString("build_name"));
+        }
+    }
+
     private String getProjectCiId(JSONObject event) {
         return ParsedPath.PIPELINE_JOB_CI_ID_PREFIX + getProjectFullPath(event) + "/" + getConvertedBranchName(event);
     }
@@ -580,8 +709,10 @@ public class EventListener {
         } else if (isBuildWithMergeRef(event)) {
             try {
                 java.nio.file.Path path = Paths.get(event.getString("ref"));
-                return gitLabApi.getMergeRequestApi().getMergeRequest(Long.toString(event.getLong("project_id")),
-                        Long.parseLong(path.subpath(2, 3).toString())).getSourceBranch();
+                long projectId = event.getLong("project_id");
+                long mergeRequestIid = Long.parseLong(path.subpath(2, 3).toString());
+                return gitLabApiWrapper.executeShared("mergeRequest", projectId + "!" + mergeRequestIid,
+                        api -> api.getMergeRequestApi().getMergeRequest(projectId, mergeRequestIid)).getSourceBranch();
             } catch (GitLabApiException e) {
                 log.warn("Failed to find the merge_request from build event ref value in GitLab, using an empty string as default", e);
                 return "";
@@ -620,9 +751,15 @@ public class EventListener {
             long projectId = event.getJSONObject("project").getLong("id");
             String sha = event.getJSONObject("object_attributes").getString("sha");
             String beforeSha = event.getJSONObject("object_attributes").getString("before_sha");
-            CompareResults results = gitLabApi.getRepositoryApi().compare(projectId, beforeSha, sha);
+            CompareResults results = gitLabApiWrapper.execute(api -> api.getRepositoryApi().compare(projectId, beforeSha, sha));
+            CommitDiffsFetcher.CommitDiffs commitDiffs = commitDiffsFetcher.fetch(projectId, results.getCommits());
+            if (commitDiffs.isTruncated()) {
+                log.warn("Push to " + sha + " in project " + projectId + " has " + commitDiffs.totalCommits() +
+                         " commits, only the first " + commitDiffs.commits().size() + " are added to the SCM data");
+            }
+
             List<SCMCommit> commits = new ArrayList<>();
-            results.getCommits().forEach(c -> {
+            commitDiffs.commits().forEach(c -> {
                 SCMCommit commit = dtoFactory.newDTO(SCMCommit.class);
                 commit.setTime(c.getTimestamp() != null ? c.getTimestamp().getTime() : new Date().getTime());
                 commit.setUser(c.getCommitterName());
@@ -630,18 +767,16 @@ public class EventListener {
                 commit.setRevId(c.getId());
                 commit.setParentRevId(sha);
                 commit.setComment(c.getMessage());
-                try {
-                    List<Diff> diffs = gitLabApi.getCommitsApi().getDiff(projectId, c.getId());
+                List<CommitDiffsFetcher.FileChange> diffs = commitDiffs.diffs().get(c.getId());
+                if (diffs != null) {
                     List<SCMChange> changes = new ArrayList<>();
                     diffs.forEach(d -> {
                         SCMChange change = dtoFactory.newDTO(SCMChange.class);
-                        change.setFile(d.getNewPath());
-                        change.setType(d.getNewFile() ? "add" : d.getDeletedFile() ? "delete" : "edit");
+                        change.setFile(d.newPath());
+                        change.setType(d.changeType());
                         changes.add(change);
                     });
                     commit.setChanges(changes);
-                } catch (GitLabApiException e) {
-                    log.warn("Failed to add a commit to the SCM data", e);
                 }
                 commits.add(commit);
             });
@@ -750,6 +885,43 @@ public class EventListener {
         return event.getString("object_kind").equals("build");
     }
 
+    /**
+     * Project events of a system hook: they carry an {@code event_name} instead of an {@code object_kind}.
+     */
+    private boolean isProjectSystemEvent(JSONObject event) {
+        return !event.has("object_kind") && PROJECT_SYSTEM_EVENTS.contains(event.optString("event_name"));
+    }
+
+    private boolean isGroupMemberEvent(JSONObject event) {
+        return !event.has("object_kind") && GROUP_MEMBER_EVENTS.contains(event.optString("event_name"));
+    }
+
+    private Response handleProjectSystemEvent(JSONObject event) {
+        long projectId = event.getLong("project_id");
+        String eventName = event.getString("event_name");
+        if (PROJECT_PATH_EVENTS.contains(eventName)) {
+            //the refs are kept by path, a project at the old or the new path is read again
+            refCatalog.invalidate(event.getString("path_with_namespace"));
+            if (event.has("old_path_with_namespace")) {
+                refCatalog.invalidate(event.getString("old_path_with_namespace"));
+            }
+        }
+        if (eventName.equals("project_destroy")) {
+            gitlabServices.onProjectRemoved(projectId);
+        } else {
+            gitlabServices.onProjectChanged(projectId);
+        }
+        return Response.ok().build();
+    }
+
+    private boolean isPushEvent(JSONObject event) {
+        return event.getString("object_kind").equals("push");
+    }
+
+    private boolean isTagPushEvent(JSONObject event) {
+        return event.getString("object_kind").equals("tag_push");
+    }
+
     private boolean isMergeRequestEvent(JSONObject event) {
         return event.getString("object_kind").equals("merge_request");
     }
@@ -29,20 +29,23 @@
 
 package com.microfocus.octane.gitlab.api;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.microfocus.octane.gitlab.app.ApplicationSettings;
+import com.microfocus.octane.gitlab.helpers.CommitDiffsFetcher;
 import com.microfocus.octane.gitlab.helpers.GitLabApiWrapper;
+import com.microfocus.octane.gitlab.helpers.GitLabHttpTransport;
+import com.microfocus.octane.gitlab.helpers.ManagedExecutors;
+import com.microfocus.octane.gitlab.helpers.ProjectEnricher;
+import com.microfocus.octane.gitlab.helpers.PullRequestBatcher;
 import com.microfocus.octane.gitlab.helpers.PullRequestHelper;
+import com.microfocus.octane.gitlab.helpers.RequestPriority;
 import com.microfocus.octane.gitlab.helpers.VariablesHelper;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.gitlab4j.api.GitLabApi;
 import org.gitlab4j.api.GitLabApiException;
-import org.gitlab4j.api.models.AccessLevel;
 import org.gitlab4j.api.models.Commit;
-import org.gitlab4j.api.models.Diff;
 import org.gitlab4j.api.models.MergeRequest;
 import org.gitlab4j.api.models.Project;
-import org.gitlab4j.api.models.ProjectFilter;
 import org.gitlab4j.api.models.Variable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -50,6 +53,7 @@ import org.springframework.context.annotation.DependsOn;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Component;
 
+import jakarta.annotation.PreDestroy;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
@@ -59,31 +63,67 @@ import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 @DependsOn({"gitLabApiWrapper", "applicationSettings", "taskExecutor"})
 public class MergeRequestHistoryHandler {
 
     private static final Logger log = LogManager.getLogger(MergeRequestHistoryHandler.class);
-    private final GitLabApi gitLabApi;
+    private static final TypeReference<List<MergeRequest>> MERGE_REQUESTS = new TypeReference<>() {};
+    private static final int PAGE_SIZE = 100;
+    private static final long PAUSE_MILLIS = 1000;
+    private final GitLabApiWrapper gitLabApiWrapper;
     private final ApplicationSettings applicationSettings;
     private final WatchService watchService;
     private final Path watchPath;
     private final TaskExecutor taskExecutor;
+    private final CommitDiffsFetcher commitDiffsFetcher;
+    private final ProjectEnricher projectEnricher;
+    private final PullRequestBatcher pullRequestBatcher;
+    private final int backfillConcurrency;
+    private final ExecutorService backfillExecutor;
+    private final BlockingQueue<ProjectBackfill> backfills = new LinkedBlockingQueue<>();
+    private final AtomicInteger runningWorkers = new AtomicInteger();
+    private final AtomicInteger pendingProjects = new AtomicInteger();
+    private final AtomicLong scannedProjects = new AtomicLong();
+    private final AtomicLong completedProjects = new AtomicLong();
+    private final AtomicLong failedProjects = new AtomicLong();
+    private final AtomicLong sentMergeRequests = new AtomicLong();
+    private final AtomicLong pauses = new AtomicLong();
+    private volatile boolean scanning;
 
     @Autowired
     public MergeRequestHistoryHandler(GitLabApiWrapper gitLabApiWrapper, ApplicationSettings applicationSettings,
-                                      @Qualifier("taskExecutor") TaskExecutor taskExecutor) {
+                                      @Qualifier("taskExecutor") TaskExecutor taskExecutor,
+                                      CommitDiffsFetcher commitDiffsFetcher, ProjectEnricher projectEnricher,
+                                      PullRequestBatcher pullRequestBatcher, ManagedExecutors managedExecutors) {
 
-        this.gitLabApi = gitLabApiWrapper.getGitLabApi();
+        this.gitLabApiWrapper = gitLabApiWrapper;
         this.applicationSettings = applicationSettings;
         this.taskExecutor = taskExecutor;
+        this.commitDiffsFetcher = commitDiffsFetcher;
+        this.projectEnricher = projectEnricher;
+        this.pullRequestBatcher = pullRequestBatcher;
+        this.backfillConcurrency = Math.max(1, applicationSettings.getConfig().getMergeRequestsBackfillConcurrency());
+        this.backfillExecutor = managedExecutors.io("mergeRequestBackfill", backfillConcurrency);
         this.watchService = createWatchService();
         this.watchPath = Paths.get(applicationSettings.getConfig().getMergeRequestHistoryFolderPath());
         registerWatchPath();
@@ -109,76 +149,206 @@ public class MergeRequestHistoryHandler {
         }
     }
 
+    /**
+     * Starts the backfill of the merge request history in the background: the maintained projects are scanned, and
+     * the projects publishing merge requests are synced by {@code gitlab.mergeRequests.backfillConcurrency} workers.
+     * The workers take the projects in turns, a page of merge requests at a time, so a project with a long history does
+     * not hold back the others, and they wait while the requests of the webhooks and of Octane need the GitLab API.
+     */
     public void executeFirstScan() {
+        scanning = true;
+        taskExecutor.execute(() -> RequestPriority.BACKGROUND.run(this::scanProjects));
+    }
+
+    private void scanProjects() {
         try {
-            ProjectFilter filter = new ProjectFilter().withMembership(true).withMinAccessLevel(AccessLevel.MAINTAINER);
-            List<Project> gitLabProjects = gitLabApi.getProjectApi().getProjects(filter).stream()
-                    .filter(project -> {
-                        Map<String, String> projectGroupVariables =
-                                VariablesHelper.getProjectGroupVariables(gitLabApi, project, applicationSettings.getConfig());
-
-                        Optional<Variable> shouldPublishToOctane =
-                                VariablesHelper.getProjectVariable(gitLabApi, project.getId(),
-                                        applicationSettings.getConfig().getPublishMergeRequestsVariableName());
-
-                        return (shouldPublishToOctane.isPresent() &&
-                                Boolean.parseBoolean(shouldPublishToOctane.get().getValue())) ||
-                                (projectGroupVariables.containsKey(
-                                        applicationSettings.getConfig().getPublishMergeRequestsVariableName()) &&
-                                        Boolean.parseBoolean(projectGroupVariables.get(applicationSettings.getConfig()
-                                                .getPublishMergeRequestsVariableName())));
-                    }).collect(Collectors.toList());
-
-            gitLabProjects.forEach(project -> {
-                try {
-                    Path pathToFile = Paths.get(watchPath.toString() + "/" + project.getId());
-                    if (!Files.exists(pathToFile)) {
-                        sendMergeRequestsToOctane(project);
-                        Files.createFile(pathToFile);
-                    }
-                } catch (GitLabApiException | IOException e) {
-                    log.warn(e.getMessage(), e);
-                }
+            gitLabApiWrapper.forEachProjectPage(GitLabApiWrapper.MAINTAINED_PROJECTS, projects -> {
+                scannedProjects.addAndGet(projects.size());
+                projectEnricher.enrich(projects);
+                //the whole history the first time, afterwards what changed while the service was down
+                projects.stream().filter(this::isPublishingMergeRequests)
+                        .forEach(project -> enqueue(project, readWatermark(project.getId())));
+                return true;
             });
 
         } catch (GitLabApiException e) {
             log.error(e.getMessage(), e);
+        } finally {
+            scanning = false;
+            log.info("Merge request history scan finished: " + scannedProjects.get() + " projects scanned");
+        }
+    }
+
+    private void enqueue(Project project, Instant since) {
+        ProjectBackfill backfill = newBackfill(project, since);
+        if (backfill == null) {
+            return;
+        }
+        pendingProjects.incrementAndGet();
+        backfills.add(backfill);
+        startWorkers();
+    }
+
+    private void startWorkers() {
+        while (true) {
+            int running = runningWorkers.get();
+            if (running >= backfillConcurrency) {
+                return;
+            }
+            if (runningWorkers.compareAndSet(running, running + 1)) {
+                backfillExecutor.execute(() -> RequestPriority.BACKGROUND.run(this::runWorker));
+            }
+        }
+    }
+
+    private void runWorker() {
+        try {
+            while (!Thread.currentThread().isInterrupted() && (scanning || pendingProjects.get() > 0)) {
+                ProjectBackfill backfill = backfills.poll(1, TimeUnit.SECONDS);
+                if (backfill == null) {
+                    continue;
+                }
+                waitForApiBudget();
+                try {
+                    if (backfill.syncNextPage()) {
+                        //back to the end of the queue, the other projects get their turn first
+                        backfills.add(backfill);
+                        continue;
+                    }
+                    completedProjects.incrementAndGet();
+                } catch (GitLabApiException | RuntimeException e) {
+                    //the watermark keeps the pages already sent, the rest is sent on the next start
+                    failedProjects.incrementAndGet();
+                    log.warn("Failed to send the merge request history of project " + backfill.project.getId(), e);
+                }
+                pendingProjects.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            runningWorkers.decrementAndGet();
+            if (!Thread.currentThread().isInterrupted() && pendingProjects.get() > 0) {
+                startWorkers();
+            }
+        }
+    }
+
+    private void waitForApiBudget() throws InterruptedException {
+        while (gitLabApiWrapper.getRateLimiter().isBackgroundThrottled()) {
+            pauses.incrementAndGet();
+            Thread.sleep(PAUSE_MILLIS);
         }
     }
 
+    /**
+     * The progress of the backfill, reported in the {@code mergeRequestBackfill} section of /status.
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("scanning", scanning);
+        metrics.put("scannedProjects", scannedProjects.get());
+        metrics.put("pendingProjects", pendingProjects.get());
+        metrics.put("completedProjects", completedProjects.get());
+        metrics.put("failedProjects", failedProjects.get());
+        metrics.put("sentMergeRequests", sentMergeRequests.get());
+        metrics.put("runningWorkers", runningWorkers.get());
+        metrics.put("pauses", pauses.get());
+        return metrics;
+    }
+
+    @PreDestroy
+    private void stop() {
+        backfillExecutor.shutdownNow();
+    }
+
+    private boolean isPublishingMergeRequests(Project project) {
+        Map<String, String> projectGroupVariables =
+                VariablesHelper.getProjectGroupVariables(gitLabApiWrapper, project, applicationSettings.getConfig());
+
+        Optional<Variable> shouldPublishToOctane =
+                VariablesHelper.getProjectVariable(gitLabApiWrapper, project.getId(),
+                        applicationSettings.getConfig().getPublishMergeRequestsVariableName());
+
+        return (shouldPublishToOctane.isPresent() &&
+                Boolean.parseBoolean(shouldPublishToOctane.get().getValue())) ||
+                (projectGroupVariables.containsKey(
+                        applicationSettings.getConfig().getPublishMergeRequestsVariableName()) &&
+                        Boolean.parseBoolean(projectGroupVariables.get(applicationSettings.getConfig()
+                                .getPublishMergeRequestsVariableName())));
+    }
+
     public void startListening() {
-        taskExecutor.execute(() -> {
-            WatchKey key;
-            try {
-                log.info("Listening for disk changes on " + watchPath + " ...");
-                while ((key = watchService.take()) != null) {
-                    for (WatchEvent<?> event : key.pollEvents()) {
-                        log.info("Disk change event occurred: " + event.context().toString() + " was deleted.");
-                        String projectId = event.context().toString();
-                        try {
-                            Project project = gitLabApi.getProjectApi().getProject(projectId);
-                            sendMergeRequestsToOctane(project);
-                            Path pathToFile = Paths.get(watchPath.toString() + "/" + project.getId());
-                            Files.createFile(pathToFile);
-                        } catch (GitLabApiException | IOException e) {
-                            log.error(e.getMessage(), e);
-                        }
+        taskExecutor.execute(() -> RequestPriority.BACKGROUND.run(this::watchHistoryFolder));
+    }
+
+    private void watchHistoryFolder() {
+        WatchKey key;
+        try {
+            log.info("Listening for disk changes on " + watchPath + " ...");
+            while ((key = watchService.take()) != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    log.info("Disk change event occurred: " + event.context().toString() + " was deleted.");
+                    String projectId = event.context().toString();
+                    try {
+                        Project project = gitLabApiWrapper.execute(api -> api.getProjectApi().getProject(projectId));
+                        enqueue(project, null);
+                    } catch (GitLabApiException e) {
+                        log.error(e.getMessage(), e);
                     }
-                    key.reset();
                 }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                key.reset();
             }
-        });
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
     }
 
-    private void sendMergeRequestsToOctane(Project project) throws GitLabApiException {
-        log.info("Sending merge request history for project with id " + project.getId() + " to Octane.");
-        List<MergeRequest> mergeRequests = gitLabApi.getMergeRequestApi().getMergeRequests(project.getId());
-        Map<String, String> projectGroupVariables = VariablesHelper.getProjectGroupVariables(gitLabApi, project, applicationSettings.getConfig());
+    /**
+     * The file of a project holds the update time of the last merge request sent to Octane. An empty file, written by
+     * earlier versions, stands for its modification time.
+     *
+     * @return null when the history of the project was never sent
+     */
+    private Instant readWatermark(long projectId) {
+        Path pathToFile = watchPath.resolve(Long.toString(projectId));
+        if (!Files.exists(pathToFile)) {
+            return null;
+        }
+        try {
+            String watermark = Files.readString(pathToFile).trim();
+            return watermark.isEmpty() ? Files.getLastModifiedTime(pathToFile).toInstant() : Instant.parse(watermark);
+        } catch (IOException | DateTimeParseException e) {
+            log.warn("Failed to read the merge request history state of project " + projectId + ", sending its whole history", e);
+            return null;
+        }
+    }
+
+    /**
+     * Rewrites the file in place: deleting it is what requests a new sync of the whole history.
+     */
+    private void writeWatermark(long projectId, Instant watermark) {
+        try {
+            Files.writeString(watchPath.resolve(Long.toString(projectId)), watermark.toString());
+        } catch (IOException e) {
+            log.warn("Failed to save the merge request history state of project " + projectId, e);
+        }
+    }
+
+    /**
+     * Prepares the sync of the merge requests of a project updated since the watermark (all of them when it is null).
+     *
+     * @return null when no destination workspace is set for the project
+     */
+    private ProjectBackfill newBackfill(Project project, Instant since) {
+        if (since == null) {
+            log.info("Sending merge request history for project with id " + project.getId() + " to Octane.");
+        } else {
+            log.info("Sending merge requests updated since " + since + " for project with id " + project.getId() + " to Octane.");
+        }
+        Map<String, String> projectGroupVariables = VariablesHelper.getProjectGroupVariables(gitLabApiWrapper, project, applicationSettings.getConfig());
 
         Optional<Variable> destinationWSVar =
-                VariablesHelper.getProjectVariable(gitLabApi, project.getId(),
+                VariablesHelper.getProjectVariable(gitLabApiWrapper, project.getId(),
                         applicationSettings.getConfig().getDestinationWorkspaceVariableName());
 
         if (destinationWSVar.isEmpty() && !projectGroupVariables.containsKey(
@@ -186,50 +356,147 @@ public class MergeRequestHistoryHandler {
             String err = "Variable for destination workspace has not been set for project with id" +
                     project.getId();
             log.error(err);
+            return null;
+        }
+        String destinationWS;
+
+        if (destinationWSVar.isPresent()) {
+            destinationWS = destinationWSVar.get().getValue();
         } else {
-            String destinationWS;
+            destinationWS = projectGroupVariables.get(
+                    applicationSettings.getConfig().getDestinationWorkspaceVariableName());
+        }
 
-            if (destinationWSVar.isPresent()) {
-                destinationWS = destinationWSVar.get().getValue();
-            } else {
-                destinationWS = projectGroupVariables.get(
-                        applicationSettings.getConfig().getDestinationWorkspaceVariableName());
-            }
+        Optional<Variable> useSSHFormatVar =
+                VariablesHelper.getProjectVariable(gitLabApiWrapper, project.getId(),
+                        applicationSettings.getConfig().getUseSSHFormatVariableName());
+
+        boolean useSSHFormat =
+                useSSHFormatVar.isPresent() && Boolean.parseBoolean(useSSHFormatVar.get().getValue()) ||
+                        projectGroupVariables.containsKey(
+                                applicationSettings.getConfig().getUseSSHFormatVariableName()) &&
+                                Boolean.parseBoolean(projectGroupVariables.get(
+                                        applicationSettings.getConfig().getUseSSHFormatVariableName()));
 
-            Optional<Variable> useSSHFormatVar =
-                    VariablesHelper.getProjectVariable(gitLabApi, project.getId(),
-                            applicationSettings.getConfig().getUseSSHFormatVariableName());
+        String repoUrl = useSSHFormat ? project.getSshUrlToRepo() : project.getHttpUrlToRepo();
+        return new ProjectBackfill(project, repoUrl, destinationWS, since);
+    }
 
-            boolean useSSHFormat =
-                    useSSHFormatVar.isPresent() && Boolean.parseBoolean(useSSHFormatVar.get().getValue()) ||
-                            projectGroupVariables.containsKey(
-                                    applicationSettings.getConfig().getUseSSHFormatVariableName()) &&
-                                    Boolean.parseBoolean(projectGroupVariables.get(
-                                            applicationSettings.getConfig().getUseSSHFormatVariableName()));
+    /**
+     * The sync of the merge requests of a project, page by page in the order of their update. The watermark of the
+     * project is advanced after each page, once Octane accepted its merge requests, and each page is requested from the
+     * current watermark, so merge requests updated during the sync are neither skipped nor sent twice.
+     */
+    final class ProjectBackfill {
 
-            String repoUrl = useSSHFormat ? project.getSshUrlToRepo() : project.getHttpUrlToRepo();
+        private final Project project;
+        private final String repoUrl;
+        private final String destinationWS;
+        private final Instant syncStart = Instant.now();
+        private Instant watermark;
+        //the merge requests sent with the update time of the watermark, the next page starts with them again
+        private final Set<Long> sentAtWatermark = new HashSet<>();
+        private int page = 1;
+
+        ProjectBackfill(Project project, String repoUrl, String destinationWS, Instant since) {
+            this.project = project;
+            this.repoUrl = repoUrl;
+            this.destinationWS = destinationWS;
+            this.watermark = since;
+        }
 
-            mergeRequests.forEach(mergeRequest -> {
-                List<Commit> mergeRequestCommits = new ArrayList<>();
-                Map<String, List<Diff>> mrCommitDiffs = new HashMap<>();
+        /**
+         * @return true when more pages follow
+         * @throws IllegalStateException when Octane did not accept a merge request of the page; the watermark is then
+         *                               saved up to the merge requests accepted before it
+         */
+        boolean syncNextPage() throws GitLabApiException {
+            Map<String, Object> query = new LinkedHashMap<>();
+            query.put("order_by", "updated_at");
+            query.put("sort", "asc");
+            query.put("per_page", PAGE_SIZE);
+            query.put("page", page);
+            if (watermark != null) {
+                query.put("updated_after", watermark.toString());
+            }
+            List<MergeRequest> mergeRequests = GitLabHttpTransport.await(gitLabApiWrapper.getTransport().getAsync(
+                    RequestPriority.current(), "projects/" + project.getId() + "/merge_requests", query, MERGE_REQUESTS));
+            Instant pageWatermark = watermark;
+            Map<Instant, CompletableFuture<Void>> outcomes = new LinkedHashMap<>();
+            for (MergeRequest mergeRequest : mergeRequests) {
+                Instant updatedAt = mergeRequest.getUpdatedAt().toInstant();
+                if (watermark != null && !updatedAt.isAfter(watermark) && sentAtWatermark.contains(mergeRequest.getId())) {
+                    continue;
+                }
+                CompletableFuture<Void> outcome = sendMergeRequestToOctane(project, mergeRequest, repoUrl, destinationWS);
+                outcomes.merge(updatedAt, outcome, CompletableFuture::allOf);
+                sentMergeRequests.incrementAndGet();
+                if (watermark == null || updatedAt.isAfter(watermark)) {
+                    watermark = updatedAt;
+                    sentAtWatermark.clear();
+                }
+                if (updatedAt.equals(watermark)) {
+                    sentAtWatermark.add(mergeRequest.getId());
+                }
+            }
+            awaitAccepted(outcomes, pageWatermark);
+            if (watermark != null) {
+                writeWatermark(project.getId(), watermark);
+            }
+            if (mergeRequests.size() < PAGE_SIZE) {
+                if (watermark == null) {
+                    //no merge requests yet; a margin for the clock differences between the service and GitLab
+                    writeWatermark(project.getId(), syncStart.minus(5, ChronoUnit.MINUTES));
+                }
+                return false;
+            }
+            //a full page with a single update time does not move the watermark, then the page number moves on
+            page = Objects.equals(watermark, pageWatermark) ? page + 1 : 1;
+            return true;
+        }
+
+        /**
+         * Waits until Octane accepted the merge requests of the page, by update time in ascending order. When one was
+         * not accepted, the watermark is saved at the last update time whose merge requests were all accepted, so the
+         * next start sends the rest again.
+         */
+        private void awaitAccepted(Map<Instant, CompletableFuture<Void>> outcomes, Instant pageWatermark) throws GitLabApiException {
+            Instant accepted = pageWatermark;
+            for (Map.Entry<Instant, CompletableFuture<Void>> outcome : outcomes.entrySet()) {
                 try {
-                    mergeRequestCommits =
-                            gitLabApi.getMergeRequestApi().getCommits(project.getId(), mergeRequest.getIid());
-                    mergeRequestCommits.forEach(commit -> {
-                        try {
-                            List<Diff> diffs = gitLabApi.getCommitsApi().getDiff(project.getId(), commit.getId());
-                            mrCommitDiffs.put(commit.getId(), diffs);
-                        } catch (GitLabApiException e) {
-                            log.warn(e.getMessage());
-                        }
-                    });
-                } catch (GitLabApiException e) {
-                    log.warn(e.getMessage(), e);
+                    outcome.getValue().get();
+                } catch (ExecutionException e) {
+                    if (accepted != null && !accepted.equals(pageWatermark)) {
+                        writeWatermark(project.getId(), accepted);
+                    }
+                    throw new IllegalStateException("Octane did not accept the merge requests of project " + project.getId() +
+                            " updated at " + outcome.getKey(), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new GitLabApiException("Interrupted while sending the merge requests of project " + project.getId());
                 }
+                accepted = outcome.getKey();
+            }
+        }
+    }
 
-                PullRequestHelper.convertAndSendMergeRequestToOctane(mergeRequest, mergeRequestCommits, mrCommitDiffs,
-                        repoUrl, destinationWS);
-            });
+    private CompletableFuture<Void> sendMergeRequestToOctane(Project project, MergeRequest mergeRequest, String repoUrl, String destinationWS) {
+        List<Commit> mergeRequestCommits = List.of();
+        try {
+            mergeRequestCommits =
+                    gitLabApiWrapper.execute(api -> api.getMergeRequestApi().getCommits(project.getId(), mergeRequest.getIid()));
+        } catch (GitLabApiException e) {
+            log.warn(e.getMessage(), e);
         }
+
+        CommitDiffsFetcher.CommitDiffs mrCommitDiffs = commitDiffsFetcher.fetch(project.getId(), mergeRequestCommits);
+        if (mrCommitDiffs.isTruncated()) {
+            log.warn("Merge request " + mergeRequest.getIid() + " of project " + project.getId() + " has " +
+                    mrCommitDiffs.totalCommits() + " commits, only the first " + mrCommitDiffs.commits().size() +
+                    " are sent to Octane");
+        }
+
+        return pullRequestBatcher.add(repoUrl, destinationWS, PullRequestHelper.convertMergeRequest(mergeRequest,
+                mrCommitDiffs.commits(), mrCommitDiffs.diffs(), repoUrl));
     }
-}
\ No newline at end of file
+}
@@ -32,7 +32,10 @@ package com.microfocus.octane.gitlab.api;
 import com.hp.octane.integrations.OctaneSDK;
 import com.microfocus.octane.gitlab.app.ApplicationSettings;
 import com.microfocus.octane.gitlab.helpers.GitLabApiWrapper;
-import org.gitlab4j.api.GitLabApi;
+import com.microfocus.octane.gitlab.helpers.ManagedExecutors;
+import com.microfocus.octane.gitlab.helpers.MergeRequestEventDebouncer;
+import com.microfocus.octane.gitlab.helpers.PullRequestBatcher;
+import com.microfocus.octane.gitlab.services.GitlabServices;
 import org.gitlab4j.api.GitLabApiException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -58,11 +61,41 @@ public class StatusRestResource {
     HttpServletRequest request;
 
     private final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-    private static GitLabApi gitLabApi;
+    private static GitLabApiWrapper gitLabApiWrapper;
+    private static GitlabServices gitlabServices;
+    private static MergeRequestHistoryHandler mergeRequestHistoryHandler;
+    private static PullRequestBatcher pullRequestBatcher;
+    private static MergeRequestEventDebouncer mergeRequestEventDebouncer;
+    private static ManagedExecutors managedExecutors;
 
     @Autowired
     public void setGitLabApi(GitLabApiWrapper gitLabApiWrapper) {
-        gitLabApi = gitLabApiWrapper.getGitLabApi();
+        StatusRestResource.gitLabApiWrapper = gitLabApiWrapper;
+    }
+
+    @Autowired
+    public void setGitlabServices(GitlabServices gitlabServices) {
+        StatusRestResource.gitlabServices = gitlabServices;
+    }
+
+    @Autowired
+    public void setPullRequestBatcher(PullRequestBatcher pullRequestBatcher) {
+        StatusRestResource.pullRequestBatcher = pullRequestBatcher;
+    }
+
+    @Autowired
+    public void setManagedExecutors(ManagedExecutors managedExecutors) {
+        StatusRestResource.managedExecutors = managedExecutors;
+    }
+
+    @Autowired
+    public void setMergeRequestEventDebouncer(MergeRequestEventDebouncer mergeRequestEventDebouncer) {
+        StatusRestResource.mergeRequestEventDebouncer = mergeRequestEventDebouncer;
+    }
+
+    @Autowired
+    public void setMergeRequestHistoryHandler(MergeRequestHistoryHandler mergeRequestHistoryHandler) {
+        StatusRestResource.mergeRequestHistoryHandler = mergeRequestHistoryHandler;
     }
 
 
@@ -81,7 +114,7 @@ public class StatusRestResource {
         String pluginVersion = ApplicationSettings.getPluginVersion();
         String gitlabVersion;
         try {
-            gitlabVersion = gitLabApi.getVersion().getVersion();
+            gitlabVersion = gitLabApiWrapper.execute(api -> api.getVersion()).getVersion();
         } catch (GitLabApiException e) {
             gitlabVersion = "";
         }
@@ -109,9 +142,18 @@ public class StatusRestResource {
                 }
         );
 
+        Map<String, Object> gitlabClientMetrics = new HashMap<>();
+        gitLabApiWrapper.getMetrics().forEach((name, metrics) -> gitlabClientMetrics.put(name, format(metrics)));
+
         //fill results
         result.put("server", serverInfo);
         result.put("metrics", allMetrics);
+        result.put("gitlabClient", gitlabClientMetrics);
+        result.put("hooksUpdate", format(gitlabServices.getHooksUpdateMetrics()));
+        result.put("mergeRequestBackfill", format(mergeRequestHistoryHandler.getMetrics()));
+        result.put("pullRequestBatches", format(pullRequestBatcher.getMetrics()));
+        result.put("mergeRequestEvents", format(mergeRequestEventDebouncer.getMetrics()));
+        result.put("executors", managedExecutors.getMetrics());
 
         return result;
     }
@@ -127,4 +169,4 @@ public class StatusRestResource {
         return map;
     }
 
-}
\ No newline at end of file
+}
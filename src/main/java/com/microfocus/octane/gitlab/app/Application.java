@@ -33,6 +33,7 @@ import com.hp.octane.integrations.OctaneConfiguration;
 import com.hp.octane.integrations.OctaneSDK;
 import com.hp.octane.integrations.exceptions.OctaneConnectivityException;
 import com.microfocus.octane.gitlab.api.MergeRequestHistoryHandler;
+import com.microfocus.octane.gitlab.helpers.ManagedExecutors;
 import com.microfocus.octane.gitlab.helpers.PasswordEncryption;
 import com.microfocus.octane.gitlab.services.OctaneServices;
 import org.apache.logging.log4j.LogManager;
@@ -42,12 +43,13 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
-import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
 import org.springframework.util.StringUtils;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.Map;
 
 import static com.microfocus.octane.gitlab.helpers.PasswordEncryption.encrypt;
 
@@ -55,10 +57,14 @@ import static com.microfocus.octane.gitlab.helpers.PasswordEncryption.encrypt;
 @ComponentScan("com.microfocus.octane.gitlab")
 public class Application {
     private static final Logger log = LogManager.getLogger(Application.class);
+    private static final int TASK_CONCURRENCY = 8;
 
+    /**
+     * Long running background tasks (the first merge request scan, the history folder watcher).
+     */
     @Bean
-    public TaskExecutor taskExecutor() {
-        return new SimpleAsyncTaskExecutor();
+    public TaskExecutor taskExecutor(ManagedExecutors managedExecutors) {
+        return new TaskExecutorAdapter(managedExecutors.io("task", TASK_CONCURRENCY));
     }
 
     public static void main(String[] args) throws GeneralSecurityException, IOException {
@@ -73,7 +79,10 @@ public class Application {
                 return;
             }
         }
-        ConfigurableApplicationContext context = SpringApplication.run(Application.class, args);
+        SpringApplication application = new SpringApplication(Application.class);
+        //web hooks are handled on virtual threads by Jetty, unless the property is set otherwise
+        application.setDefaultProperties(Map.of("spring.threads.virtual.enabled", "true"));
+        ConfigurableApplicationContext context = application.run(args);
 
         context.registerShutdownHook();
 
@@ -125,4 +134,4 @@ public class Application {
             throw new IllegalArgumentException("Unexpected exception :" + e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
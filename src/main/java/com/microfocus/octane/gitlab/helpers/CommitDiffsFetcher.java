@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.microfocus.octane.gitlab.app.ApplicationSettings;
+import com.microfocus.octane.gitlab.model.ConfigStructure;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gitlab4j.api.models.Commit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Fetches the changed files of a list of commits in parallel.
+ * The requests are sent through the asynchronous {@link GitLabHttpTransport}, bounded by a service wide pool size
+ * and by a per event concurrency limit, so a single big push can't starve the other events.
+ * Commits beyond the configured maximum are dropped and reported as truncated.
+ * <p>
+ * Only the path and the kind of change of each file are kept: the diff responses are parsed while they are streamed,
+ * and the patch text of the files is skipped without being decoded, so the memory used for a commit depends on the
+ * number of files it changes and not on the size of its patch.
+ */
+@Component
+@Scope("singleton")
+public class CommitDiffsFetcher {
+
+    private static final Logger log = LogManager.getLogger(CommitDiffsFetcher.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private final GitLabApiWrapper gitLabApiWrapper;
+    private final AsyncPermits poolPermits;
+    private final int perEventConcurrency;
+    private final int maxCommitsPerEvent;
+
+    @Autowired
+    public CommitDiffsFetcher(GitLabApiWrapper gitLabApiWrapper, ApplicationSettings applicationSettings) {
+        ConfigStructure config = applicationSettings.getConfig();
+        this.gitLabApiWrapper = gitLabApiWrapper;
+        this.poolPermits = new AsyncPermits(Math.max(1, config.getCommitDiffsPoolSize()));
+        this.perEventConcurrency = Math.max(1, config.getCommitDiffsPerEventConcurrency());
+        this.maxCommitsPerEvent = Math.max(1, config.getMaxCommitsPerEvent());
+    }
+
+    public CommitDiffs fetch(Object projectIdOrPath, List<Commit> commits) {
+        return fetch(projectIdOrPath, commits, Map.of());
+    }
+
+    /**
+     * Like {@link #fetch(Object, List)}, but the diffs found in {@code knownDiffs} (keyed by commit id) are reused
+     * instead of being requested again.
+     */
+    public CommitDiffs fetch(Object projectIdOrPath, List<Commit> commits, Map<String, List<FileChange>> knownDiffs) {
+        List<Commit> selectedCommits = commits.size() > maxCommitsPerEvent ? commits.subList(0, maxCommitsPerEvent) : commits;
+        AsyncPermits eventPermits = new AsyncPermits(perEventConcurrency);
+        RequestPriority priority = RequestPriority.current();
+
+        List<CompletableFuture<List<FileChange>>> futures = new ArrayList<>(selectedCommits.size());
+        selectedCommits.forEach(commit -> {
+            List<FileChange> known = knownDiffs.get(commit.getId());
+            futures.add(known != null ? CompletableFuture.completedFuture(known) :
+                    fetchDiff(projectIdOrPath, commit.getId(), eventPermits, priority));
+        });
+
+        Map<String, List<FileChange>> diffs = new LinkedHashMap<>();
+        for (int i = 0; i < futures.size(); i++) {
+            String commitId = selectedCommits.get(i).getId();
+            try {
+                diffs.put(commitId, futures.get(i).get());
+            } catch (ExecutionException e) {
+                log.warn("Failed to get the diff of commit " + commitId + " in project " + projectIdOrPath,
+                        GitLabHttpTransport.asGitLabApiException(e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(future -> future.cancel(true));
+                break;
+            }
+        }
+
+        return new CommitDiffs(selectedCommits, diffs, commits.size());
+    }
+
+    private CompletableFuture<List<FileChange>> fetchDiff(Object projectIdOrPath, String commitId, AsyncPermits eventPermits,
+                                                    RequestPriority priority) {
+        String path = "projects/" + GitLabHttpTransport.pathSegment(projectIdOrPath) + "/repository/commits/" +
+                GitLabHttpTransport.pathSegment(commitId) + "/diff";
+        return eventPermits.acquire()
+                .thenCompose(v -> poolPermits.acquire())
+                .thenCompose(v -> gitLabApiWrapper.getTransport().getAllPagesStreamingAsync(priority, path, Map.of(), CommitDiffsFetcher::readFileChanges)
+                        .whenComplete((result, e) -> {
+                            poolPermits.release();
+                            eventPermits.release();
+                        }));
+    }
+
+    /**
+     * Reads a page of the diff of a commit, keeping the path and the kind of change of each file.
+     */
+    static List<FileChange> readFileChanges(InputStream body) throws IOException {
+        List<FileChange> changes = new ArrayList<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Unexpected diff response, a list of files was expected");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                String newPath = null;
+                boolean newFile = false;
+                boolean deletedFile = false;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    JsonToken value = parser.nextToken();
+                    switch (field) {
+                        case "new_path" -> newPath = parser.getValueAsString();
+                        case "new_file" -> newFile = value == JsonToken.VALUE_TRUE;
+                        case "deleted_file" -> deletedFile = value == JsonToken.VALUE_TRUE;
+                        //a string that is not asked for (the patch in "diff") is skipped by the next token
+                        default -> parser.skipChildren();
+                    }
+                }
+                changes.add(new FileChange(newPath, newFile, deletedFile));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * A file changed by a commit.
+     */
+    public record FileChange(String newPath, boolean newFile, boolean deletedFile) {
+
+        public String changeType() {
+            return newFile ? "add" : deletedFile ? "delete" : "edit";
+        }
+    }
+
+    /**
+     * The commits that were handled (in their original order), their changed files keyed by commit id and the number of
+     * commits that were received before truncation. Commits whose diff could not be fetched have no entry in the map.
+     */
+    public record CommitDiffs(List<Commit> commits, Map<String, List<FileChange>> diffs, int totalCommits) {
+
+        public boolean isTruncated() {
+            return commits.size() < totalCommits;
+        }
+    }
+}
@@ -46,8 +46,11 @@ public final class GitLabAPiClientImpl extends GitLabApiClient {
     private static final String INSTANCE_VARIABLES_PATH = "admin/ci/variables";
     private static final Logger log = LogManager.getLogger(GitLabAPiClientImpl.class);
 
-    public GitLabAPiClientImpl(String hostUrl, String gitlabPersonalAccessToken) {
+    private final GitLabRateLimiter rateLimiter;
+
+    public GitLabAPiClientImpl(String hostUrl, String gitlabPersonalAccessToken, GitLabRateLimiter rateLimiter) {
         super(hostUrl, gitlabPersonalAccessToken);
+        this.rateLimiter = rateLimiter;
     }
 
     public List<Variable> getInstanceVariables() {
@@ -56,6 +59,8 @@ public final class GitLabAPiClientImpl extends GitLabApiClient {
         try {
             URL url = this.getApiUrl(INSTANCE_VARIABLES_PATH);
             Response r =this.get(null,url);
+            rateLimiter.onRateLimitHeaders(r.getHeaderString("RateLimit-Limit"),
+                    r.getHeaderString("RateLimit-Remaining"), r.getHeaderString("RateLimit-Reset"));
             if(r.getStatus() == Response.Status.OK.getStatusCode()) {
                 return VariablesHelper.convertJSONArrayToVariables(new JSONArray(r.readEntity(String.class)));
             } else{
@@ -29,6 +29,7 @@
 
 package com.microfocus.octane.gitlab.helpers;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.hp.octane.integrations.utils.CIPluginSDKUtils;
 import com.microfocus.octane.gitlab.app.ApplicationSettings;
 import com.microfocus.octane.gitlab.model.ConfigStructure;
@@ -46,11 +47,20 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import javax.naming.ConfigurationException;
+import java.net.Authenticator;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
+import java.net.PasswordAuthentication;
+import java.net.ProxySelector;
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 
 import static com.microfocus.octane.gitlab.helpers.PasswordEncryption.PREFIX;
 
@@ -60,7 +70,16 @@ public class GitLabApiWrapper {
 
     private final ApplicationSettings applicationSettings;
     private GitLabApi gitLabApi;
+    private GitLabRateLimiter rateLimiter;
+    private GitLabHttpTransport transport;
     private static final Logger log = LogManager.getLogger(GitLabApiWrapper.class);
+    private static final TypeReference<List<Project>> PROJECTS = new TypeReference<>() {};
+
+    /**
+     * The projects the service works on: those the integration user maintains.
+     */
+    public static final Map<String, Object> MAINTAINED_PROJECTS =
+            Map.of("membership", true, "min_access_level", AccessLevel.MAINTAINER.toValue());
 
     @Autowired
     public GitLabApiWrapper(ApplicationSettings applicationSettings) {
@@ -71,6 +90,8 @@ public class GitLabApiWrapper {
     public void initGitlabApiWrapper() throws MalformedURLException, GitLabApiException, ConfigurationException {
         ConfigStructure config = applicationSettings.getConfig();
         Map<String, Object> proxyConfig = null;
+        ProxySelector proxySelector = null;
+        Authenticator proxyAuthenticator = null;
         URL targetUrl = CIPluginSDKUtils.parseURL(config.getGitlabLocation());
 
         if (ProxyHelper.isProxyNeeded(applicationSettings, targetUrl)) {
@@ -88,6 +109,19 @@ public class GitLabApiWrapper {
                     proxyUrl,
                     config.getProxyField(protocol, "proxyUser"),
                     proxyPassword);
+            URL proxy = new URL(proxyUrl);
+            proxySelector = ProxySelector.of(new InetSocketAddress(proxy.getHost(),
+                    proxy.getPort() != -1 ? proxy.getPort() : proxy.getDefaultPort()));
+            String proxyUser = config.getProxyField(protocol, "proxyUser");
+            if (proxyUser != null) {
+                char[] password = proxyPassword != null ? proxyPassword.toCharArray() : new char[0];
+                proxyAuthenticator = new Authenticator() {
+                    @Override
+                    protected PasswordAuthentication getPasswordAuthentication() {
+                        return getRequestorType() == RequestorType.PROXY ? new PasswordAuthentication(proxyUser, password) : null;
+                    }
+                };
+            }
         }
         String gitlabPersonalAccessToken = config.getGitlabPersonalAccessToken();
         if (gitlabPersonalAccessToken != null && gitlabPersonalAccessToken.startsWith(PREFIX)) {
@@ -98,8 +132,10 @@ public class GitLabApiWrapper {
             }
         }
         gitLabApi = new GitLabApi(config.getGitlabLocation(), gitlabPersonalAccessToken, null, proxyConfig);
+        rateLimiter = new GitLabRateLimiter(config);
+        transport = new GitLabHttpTransport(config, gitlabPersonalAccessToken, rateLimiter, proxySelector, proxyAuthenticator);
         try {
-            gitLabApi.getProjectApi().getOwnedProjects();
+            execute(api -> api.getProjectApi().getOwnedProjects());
         } catch (GitLabApiException e) {
             String message = "GitLab API failed to perform basic operations. Please validate GitLab properties - location, personalAccessToken(including token permissions/scopes in GitLab server)" +
                     " if one of the end points doesnt required proxy, please put it on the non proxy hosts.";
@@ -113,6 +149,108 @@ public class GitLabApiWrapper {
         return gitLabApi;
     }
 
+    /**
+     * Executes a read request with the priority of the current thread, see {@link RequestPriority#current()}.
+     */
+    public <T> T execute(GitLabCall<T> call) throws GitLabApiException {
+        return execute(RequestPriority.current(), call);
+    }
+
+    public <T> T execute(RequestPriority priority, GitLabCall<T> call) throws GitLabApiException {
+        return rateLimiter.execute(gitLabApi, priority, call, true);
+    }
+
+    /**
+     * Executes a read request, sharing the result with the concurrent callers reading the same resource.
+     * The result may be seen by several callers and must not be modified.
+     *
+     * @param kind the kind of resource (for example "project"), reported in the metrics
+     * @param key  identifies the resource within its kind
+     */
+    public <T> T executeShared(String kind, Object key, GitLabCall<T> call) throws GitLabApiException {
+        RequestPriority priority = RequestPriority.current();
+        return transport.getSingleFlight().execute(kind, key, priority, () -> execute(priority, call));
+    }
+
+    /**
+     * Executes a request that is not idempotent; it is retried only when GitLab throttled it.
+     */
+    public <T> T executeWrite(GitLabCall<T> call) throws GitLabApiException {
+        return rateLimiter.execute(gitLabApi, RequestPriority.current(), call, false);
+    }
+
+    /**
+     * Streams the projects matching the filter, page by page and ordered by id, in their simple representation.
+     * The pages are read with keyset pagination ({@code id_after}), and the next page is requested while the handler
+     * processes the current one. The scan stops when the handler returns false or the thread is interrupted.
+     *
+     * @return the number of projects passed to the handler
+     */
+    public long forEachProjectPage(Map<String, ?> filter, Predicate<List<Project>> pageHandler) throws GitLabApiException {
+        RequestPriority priority = RequestPriority.current();
+        int pageSize = Math.min(100, Math.max(1, applicationSettings.getConfig().getProjectsPageSize()));
+        Map<String, Object> query = new LinkedHashMap<>(filter);
+        query.put("simple", true);
+        query.put("order_by", "id");
+        query.put("sort", "asc");
+        query.put("per_page", pageSize);
+        Object idAfter = query.remove("id_after");
+
+        long count = 0;
+        CompletableFuture<List<Project>> nextPage = getProjectPage(priority, query, idAfter);
+        while (nextPage != null) {
+            List<Project> page = GitLabHttpTransport.await(nextPage);
+            nextPage = page.size() < pageSize ? null : getProjectPage(priority, query, page.get(page.size() - 1).getId());
+            if (page.isEmpty()) {
+                break;
+            }
+            count += page.size();
+            if (Thread.currentThread().isInterrupted() || !pageHandler.test(page)) {
+                if (nextPage != null) {
+                    nextPage.cancel(true);
+                }
+                log.info("Project scan stopped after " + count + " projects");
+                break;
+            }
+        }
+        return count;
+    }
+
+    private CompletableFuture<List<Project>> getProjectPage(RequestPriority priority, Map<String, Object> query, Object idAfter) {
+        Map<String, Object> pageQuery = new LinkedHashMap<>(query);
+        if (idAfter != null) {
+            pageQuery.put("id_after", idAfter);
+        }
+        return transport.getCachedAsync(priority, "projects", pageQuery, PROJECTS);
+    }
+
+    public GitLabRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * The asynchronous transport, for the paths that send many requests at once.
+     */
+    public GitLabHttpTransport getTransport() {
+        return transport;
+    }
+
+    public Map<String, Map<String, Object>> getMetrics() {
+        Map<String, Map<String, Object>> metrics = new LinkedHashMap<>();
+        metrics.put("rateLimiter", rateLimiter.getMetrics());
+        metrics.put("transport", transport.getMetrics());
+        metrics.put("responseCache", transport.getResponseCacheMetrics());
+        metrics.put("singleFlight", transport.getSingleFlight().getMetrics());
+        return metrics;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (transport != null) {
+            transport.close();
+        }
+    }
+
     /* public boolean isUserHasPermissionForProject(Project project,User currentUser) {
         try {
             Optional<Member> currentMember = gitLabApi.getProjectApi().getAllMembers(project.getId())
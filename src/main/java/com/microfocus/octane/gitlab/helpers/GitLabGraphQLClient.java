@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gitlab4j.api.GitLabApiException;
+import org.gitlab4j.api.models.Variable;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the metadata of several projects with a single GitLab GraphQL query: the project itself, its default branch,
+ * its CI/CD variables and the CI/CD variables of all its ancestor groups.
+ * Each project and each group is queried under its own alias, so one request replaces several REST calls per project.
+ */
+public class GitLabGraphQLClient {
+
+    private static final Logger log = LogManager.getLogger(GitLabGraphQLClient.class);
+    private static final String VARIABLES_FIELDS = "{ nodes { key value } pageInfo { hasNextPage } }";
+    private static final String PROJECT_FIELDS =
+            "{ id name nameWithNamespace fullPath repository { rootRef } ciVariables " + VARIABLES_FIELDS + " }";
+    private static final String GROUP_FIELDS = "{ fullPath ciVariables " + VARIABLES_FIELDS + " }";
+
+    private final GitLabHttpTransport transport;
+    private final URI endpoint;
+
+    public GitLabGraphQLClient(GitLabHttpTransport transport, URI endpoint) {
+        this.transport = transport;
+        this.endpoint = endpoint;
+    }
+
+    public ProjectsMetadata fetchProjects(Collection<String> projectPaths) throws GitLabApiException {
+        List<String> projects = new ArrayList<>(projectPaths);
+        Set<String> groupSet = new LinkedHashSet<>();
+        projects.forEach(path -> groupSet.addAll(ParsedPath.getGroupFullPathFromProject(path)));
+        List<String> groups = new ArrayList<>(groupSet);
+
+        String request = new JSONObject().put("query", buildQuery(projects, groups)).toString();
+        GitLabResponse response = GitLabHttpTransport.await(transport.postJsonAsync(RequestPriority.current(), endpoint, request));
+        JSONObject body = new JSONObject(new String(response.body(), StandardCharsets.UTF_8));
+        JSONObject data = body.optJSONObject("data");
+        if (data == null) {
+            throw new GitLabApiException("GitLab GraphQL query failed: " + body.optJSONArray("errors"));
+        }
+        if (body.has("errors")) {
+            log.debug("GitLab GraphQL query returned partial results: " + body.getJSONArray("errors"));
+        }
+
+        Map<String, ProjectMetadata> projectsMetadata = new HashMap<>();
+        for (int i = 0; i < projects.size(); i++) {
+            JSONObject project = data.optJSONObject("p" + i);
+            if (project != null) {
+                projectsMetadata.put(projects.get(i), toProjectMetadata(project));
+            }
+        }
+        Map<String, List<Variable>> groupVariables = new HashMap<>();
+        for (int i = 0; i < groups.size(); i++) {
+            JSONObject group = data.optJSONObject("g" + i);
+            List<Variable> variables = group != null ? toVariables(group.optJSONObject("ciVariables")) : null;
+            if (variables != null) {
+                groupVariables.put(groups.get(i), variables);
+            }
+        }
+        return new ProjectsMetadata(projectsMetadata, groupVariables);
+    }
+
+    static String buildQuery(List<String> projects, List<String> groups) {
+        StringBuilder query = new StringBuilder("query {");
+        for (int i = 0; i < projects.size(); i++) {
+            query.append(" p").append(i).append(": project(fullPath: ").append(quote(projects.get(i))).append(") ")
+                    .append(PROJECT_FIELDS);
+        }
+        for (int i = 0; i < groups.size(); i++) {
+            query.append(" g").append(i).append(": group(fullPath: ").append(quote(groups.get(i))).append(") ")
+                    .append(GROUP_FIELDS);
+        }
+        return query.append(" }").toString();
+    }
+
+    private static String quote(String value) {
+        return JSONObject.quote(value);
+    }
+
+    private static ProjectMetadata toProjectMetadata(JSONObject project) {
+        String globalId = project.getString("id");
+        JSONObject repository = project.optJSONObject("repository");
+        return new ProjectMetadata(
+                Long.parseLong(globalId.substring(globalId.lastIndexOf('/') + 1)),
+                project.getString("fullPath"),
+                project.optString("name", null),
+                project.optString("nameWithNamespace", null),
+                repository != null ? repository.optString("rootRef", null) : null,
+                toVariables(project.optJSONObject("ciVariables")));
+    }
+
+    /**
+     * The variables of a connection, or null when they are not available (e.g. missing permissions) or when they do not
+     * fit in one page: a partial list would make the missing variables look absent, the REST lookups read them all.
+     */
+    private static List<Variable> toVariables(JSONObject connection) {
+        JSONArray nodes = connection != null ? connection.optJSONArray("nodes") : null;
+        if (nodes == null) {
+            return null;
+        }
+        JSONObject pageInfo = connection.optJSONObject("pageInfo");
+        if (pageInfo != null && pageInfo.optBoolean("hasNextPage", false)) {
+            return null;
+        }
+        List<Variable> variables = new ArrayList<>(nodes.length());
+        for (int i = 0; i < nodes.length(); i++) {
+            JSONObject node = nodes.getJSONObject(i);
+            Variable variable = new Variable();
+            variable.setKey(node.getString("key"));
+            variable.setValue(node.optString("value", null));
+            variables.add(variable);
+        }
+        return variables;
+    }
+
+    /**
+     * The metadata of a project; {@code variables} is null when GitLab did not return them.
+     */
+    public record ProjectMetadata(long id, String pathWithNamespace, String name, String nameWithNamespace,
+                                  String defaultBranch, List<Variable> variables) {
+    }
+
+    /**
+     * The metadata of the requested projects, keyed by the requested path, and the variables of their ancestor
+     * groups, keyed by the group full path. Projects and groups that could not be read are missing.
+     */
+    public record ProjectsMetadata(Map<String, ProjectMetadata> projects, Map<String, List<Variable>> groupVariables) {
+    }
+}
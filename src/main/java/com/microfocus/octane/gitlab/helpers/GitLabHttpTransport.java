@@ -0,0 +1,477 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.microfocus.octane.gitlab.model.ConfigStructure;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gitlab4j.api.GitLabApiException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Authenticator;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Non blocking transport for GitLab API reads, based on the JDK {@link HttpClient}.
+ * <p>
+ * Requests are sent asynchronously and return futures, so fan-out paths can have many requests in flight without
+ * holding a thread for each of them. Connections are pooled and kept alive by the client (HTTP/2 is negotiated when
+ * the server supports it) and the number of requests in flight to a single host is limited. Every request goes through
+ * the {@link GitLabRateLimiter}, and the rate limit headers of the responses are reported back to it.
+ * The cached reads revalidate their previous response with its ETag, see {@link GitLabResponseCache}.
+ */
+public class GitLabHttpTransport implements AutoCloseable {
+
+    private static final Logger log = LogManager.getLogger(GitLabHttpTransport.class);
+    private static final String API_PATH = "/api/v4/";
+    private static final int PER_PAGE = 100;
+
+    private final HttpClient httpClient;
+    private final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("gitlab-http-", 0).factory());
+    private final URI apiUri;
+    private final String accessToken;
+    private final GitLabRateLimiter rateLimiter;
+    private final Duration requestTimeout;
+    private final int maxConnectionsPerHost;
+    private final Map<String, AsyncPermits> hostPermits = new ConcurrentHashMap<>();
+    private final GitLabResponseCache responseCache;
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong http2Responses = new AtomicLong();
+    private final AtomicLong totalLatencyMillis = new AtomicLong();
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    public GitLabHttpTransport(ConfigStructure config, String accessToken, GitLabRateLimiter rateLimiter,
+                               ProxySelector proxySelector, Authenticator proxyAuthenticator) {
+        configureConnectionPool(config);
+        String location = config.getGitlabLocation();
+        this.apiUri = URI.create((location.endsWith("/") ? location.substring(0, location.length() - 1) : location) + API_PATH);
+        this.accessToken = accessToken;
+        this.rateLimiter = rateLimiter;
+        this.requestTimeout = Duration.ofSeconds(Math.max(1, config.getTransportRequestTimeoutSeconds()));
+        this.maxConnectionsPerHost = Math.max(1, config.getTransportMaxConnectionsPerHost());
+        this.responseCache = new GitLabResponseCache(config.getResponseCacheMaxEntries(),
+                config.getResponseCacheMaxMegabytes() * 1024L * 1024L);
+
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(config.isTransportHttp2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(Math.max(1, config.getTransportConnectTimeoutSeconds())))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor);
+        if (proxySelector != null) {
+            builder.proxy(proxySelector);
+        }
+        if (proxyAuthenticator != null) {
+            builder.authenticator(proxyAuthenticator);
+        }
+        this.httpClient = builder.build();
+    }
+
+    /**
+     * The JDK client reads its pool settings from system properties when the first client is created;
+     * values given on the command line take precedence.
+     */
+    private static void configureConnectionPool(ConfigStructure config) {
+        if (System.getProperty("jdk.httpclient.connectionPoolSize") == null) {
+            System.setProperty("jdk.httpclient.connectionPoolSize", Integer.toString(Math.max(0, config.getTransportConnectionPoolSize())));
+        }
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout", Integer.toString(Math.max(1, config.getTransportKeepAliveSeconds())));
+        }
+    }
+
+    public CompletableFuture<GitLabResponse> getAsync(RequestPriority priority, String path, Map<String, ?> query) {
+        HttpRequest request = newRequest(path, query).GET().build();
+        return send(priority, request, 0);
+    }
+
+    public <T> CompletableFuture<T> getAsync(RequestPriority priority, String path, Map<String, ?> query, TypeReference<T> type) {
+        return getPageAsync(priority, path, query, type, false).thenApply(Page::value);
+    }
+
+    /**
+     * Like {@link #getAsync(RequestPriority, String, Map, TypeReference)}, but revalidates a previous response with
+     * its ETag. The returned value may be shared with other callers and must not be modified.
+     */
+    public <T> CompletableFuture<T> getCachedAsync(RequestPriority priority, String path, Map<String, ?> query, TypeReference<T> type) {
+        return getPageAsync(priority, path, query, type, true).thenApply(Page::value);
+    }
+
+    /**
+     * Reads all the pages of a paginated list, one page after the other.
+     */
+    public <T> CompletableFuture<List<T>> getAllPagesAsync(RequestPriority priority, String path, Map<String, ?> query,
+                                                           TypeReference<List<T>> type) {
+        return getPagesAsync(priority, path, query, type, 1, new ArrayList<>(), false);
+    }
+
+    public <T> CompletableFuture<List<T>> getAllPagesCachedAsync(RequestPriority priority, String path, Map<String, ?> query,
+                                                                 TypeReference<List<T>> type) {
+        return getPagesAsync(priority, path, query, type, 1, new ArrayList<>(), true);
+    }
+
+    public <T> T getCached(String path, Map<String, ?> query, TypeReference<T> type) throws GitLabApiException {
+        return await(getCachedAsync(RequestPriority.current(), path, query, type));
+    }
+
+    public <T> List<T> getAllPagesCached(String path, Map<String, ?> query, TypeReference<List<T>> type) throws GitLabApiException {
+        return await(getAllPagesCachedAsync(RequestPriority.current(), path, query, type));
+    }
+
+    /**
+     * Reads all the pages of a paginated list without buffering the responses: each body is handed to the reader as a
+     * stream while it arrives, so the reader can keep the fields it needs and skip the others.
+     */
+    public <T> CompletableFuture<List<T>> getAllPagesStreamingAsync(RequestPriority priority, String path, Map<String, ?> query,
+                                                                    BodyReader<List<T>> reader) {
+        return getStreamedPagesAsync(priority, path, query, reader, 1, new ArrayList<>());
+    }
+
+    private <T> CompletableFuture<List<T>> getStreamedPagesAsync(RequestPriority priority, String path, Map<String, ?> query,
+                                                                 BodyReader<List<T>> reader, int page, List<T> items) {
+        Map<String, Object> pageQuery = new LinkedHashMap<>(query);
+        pageQuery.put("per_page", PER_PAGE);
+        pageQuery.put("page", page);
+        HttpRequest request = newRequest(path, pageQuery).GET().build();
+        return send(priority, request, 0, HttpResponse.BodyHandlers.ofInputStream(),
+                response -> {
+                    try (InputStream body = response.body()) {
+                        return body.readAllBytes();
+                    }
+                },
+                response -> {
+                    try (InputStream body = response.body()) {
+                        return new Page<>(reader.read(body),
+                                new GitLabResponse(response.statusCode(), response.headers(), null).nextPage());
+                    }
+                })
+                .thenCompose(result -> {
+                    items.addAll(result.value());
+                    return result.nextPage() == null ? CompletableFuture.completedFuture(items) :
+                            getStreamedPagesAsync(priority, path, query, reader, result.nextPage(), items);
+                });
+    }
+
+    private <T> CompletableFuture<List<T>> getPagesAsync(RequestPriority priority, String path, Map<String, ?> query,
+                                                         TypeReference<List<T>> type, int page, List<T> items, boolean cached) {
+        Map<String, Object> pageQuery = new LinkedHashMap<>(query);
+        pageQuery.put("per_page", PER_PAGE);
+        pageQuery.put("page", page);
+        return getPageAsync(priority, path, pageQuery, type, cached).thenCompose(result -> {
+            items.addAll(result.value());
+            return result.nextPage() == null ? CompletableFuture.completedFuture(items) :
+                    getPagesAsync(priority, path, query, type, result.nextPage(), items, cached);
+        });
+    }
+
+    <T> CompletableFuture<Page<T>> getPageAsync(RequestPriority priority, String path, Map<String, ?> query,
+                                                TypeReference<T> type, boolean cached) {
+        HttpRequest.Builder builder = newRequest(path, query).GET();
+        HttpRequest request = builder.build();
+        if (!cached) {
+            return send(priority, request, 0).thenApply(response -> new Page<>(readValue(response.body(), type), response.nextPage()));
+        }
+        //the values of cached reads are shared anyway, so identical reads in flight are coalesced
+        String url = request.uri().toString();
+        return singleFlight.executeAsync("cachedRead", url, priority, () -> responseCache.isEnabled()
+                ? revalidate(priority, builder, url, type)
+                : send(priority, request, 0).thenApply(response -> new Page<>(readValue(response.body(), type), response.nextPage())));
+    }
+
+    private <T> CompletableFuture<Page<T>> revalidate(RequestPriority priority, HttpRequest.Builder builder, String url,
+                                                      TypeReference<T> type) {
+        GitLabResponseCache.Entry entry = responseCache.lookup(url);
+        if (entry != null) {
+            builder.header("If-None-Match", entry.etag);
+        }
+        return send(priority, builder.build(), 0).thenApply(response -> {
+            if (response.status() == 304 && entry != null) {
+                return new Page<>(responseCache.notModified(entry, body -> readValue(body, type)), entry.nextPage);
+            }
+            T value = readValue(response.body(), type);
+            String etag = response.header("ETag");
+            if (etag != null) {
+                responseCache.store(url, etag, response.body(), value, response.nextPage());
+            }
+            return new Page<>(value, response.nextPage());
+        });
+    }
+
+    /**
+     * Posts a JSON document to an absolute URI of the GitLab instance, for example the GraphQL endpoint.
+     */
+    public CompletableFuture<GitLabResponse> postJsonAsync(RequestPriority priority, URI uri, String json) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout)
+                .header("PRIVATE-TOKEN", accessToken)
+                .header("Accept", "application/json")
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json, StandardCharsets.UTF_8))
+                .build();
+        return send(priority, request, 0);
+    }
+
+    /**
+     * Sends a write request (POST, PUT or DELETE) with an optional JSON body to a path of the API.
+     * Like the other writes, it is retried only when GitLab throttled it.
+     */
+    public CompletableFuture<GitLabResponse> writeJsonAsync(RequestPriority priority, String method, String path, String json) {
+        HttpRequest request = newRequest(path, Map.of())
+                .header("Content-Type", "application/json")
+                .method(method, json == null ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(json, StandardCharsets.UTF_8))
+                .build();
+        return send(priority, request, 0);
+    }
+
+    /**
+     * The base URL of the GitLab instance.
+     */
+    public URI getGitLabUri() {
+        return apiUri.resolve("../../");
+    }
+
+    public GitLabResponse get(String path, Map<String, ?> query) throws GitLabApiException {
+        return await(getAsync(RequestPriority.current(), path, query));
+    }
+
+    /**
+     * Waits for a future returned by the transport and rethrows its failure as a {@link GitLabApiException}.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws GitLabApiException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new GitLabApiException("Interrupted while waiting for a GitLab response");
+        } catch (ExecutionException e) {
+            throw asGitLabApiException(e.getCause());
+        }
+    }
+
+    public static GitLabApiException asGitLabApiException(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof GitLabApiException gitLabApiException) {
+            return gitLabApiException;
+        }
+        return cause instanceof Exception exception ? new GitLabApiException(exception) : new GitLabApiException(cause.toString());
+    }
+
+    /**
+     * Encodes a project id, path or namespace as a single path segment.
+     */
+    public static String pathSegment(Object idOrPath) {
+        return URLEncoder.encode(idOrPath.toString(), StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    public <T> T readValue(byte[] body, TypeReference<T> type) {
+        try {
+            return objectMapper.readValue(body, type);
+        } catch (IOException e) {
+            throw new CompletionException(new GitLabApiException(e));
+        }
+    }
+
+    HttpRequest.Builder newRequest(String path, Map<String, ?> query) {
+        StringBuilder uri = new StringBuilder(apiUri.toString()).append(path);
+        if (query != null && !query.isEmpty()) {
+            uri.append('?');
+            query.forEach((name, value) -> {
+                if (value != null) {
+                    uri.append(URLEncoder.encode(name, StandardCharsets.UTF_8)).append('=')
+                            .append(URLEncoder.encode(value.toString(), StandardCharsets.UTF_8)).append('&');
+                }
+            });
+            uri.setLength(uri.length() - 1);
+        }
+        return HttpRequest.newBuilder(URI.create(uri.toString()))
+                .timeout(requestTimeout)
+                .header("PRIVATE-TOKEN", accessToken)
+                .header("Accept", "application/json");
+    }
+
+    CompletableFuture<GitLabResponse> send(RequestPriority priority, HttpRequest request, int attempt) {
+        return send(priority, request, attempt, HttpResponse.BodyHandlers.ofByteArray(), HttpResponse::body,
+                response -> new GitLabResponse(response.statusCode(), response.headers(), response.body()));
+    }
+
+    /**
+     * Sends a request with the given body handler. The body of a successful response is converted by {@code reader}
+     * and the one of an error response by {@code errorBody}, both before the request slot is released, so a streamed
+     * body is read while the connection is still accounted for.
+     */
+    private <B, T> CompletableFuture<T> send(RequestPriority priority, HttpRequest request, int attempt,
+                                             HttpResponse.BodyHandler<B> bodyHandler,
+                                             ResponseReader<B, byte[]> errorBody, ResponseReader<B, T> reader) {
+        AsyncPermits permits = hostPermits.computeIfAbsent(request.uri().getHost() + ":" + request.uri().getPort(),
+                host -> new AsyncPermits(maxConnectionsPerHost));
+        return rateLimiter.acquireAsync(priority)
+                .thenCompose(v -> permits.acquire())
+                .thenCompose(v -> {
+                    long start = System.currentTimeMillis();
+                    requests.incrementAndGet();
+                    //the readers may block on a streamed body, they run on the (virtual) threads of the client
+                    return httpClient.sendAsync(request, bodyHandler)
+                            .thenApplyAsync(response -> response.statusCode() < 400
+                                    ? new Exchange<T>(response, read(reader, response), null)
+                                    : new Exchange<T>(response, null, read(errorBody, response)), executor)
+                            .whenComplete((exchange, e) -> {
+                                permits.release();
+                                rateLimiter.release(priority, exchange != null && exchange.status() == 429);
+                                totalLatencyMillis.addAndGet(System.currentTimeMillis() - start);
+                                if (exchange != null) {
+                                    onResponse(exchange.response());
+                                } else {
+                                    failures.incrementAndGet();
+                                }
+                            });
+                })
+                .thenCompose(exchange -> {
+                    int status = exchange.status();
+                    if (status < 400) {
+                        return CompletableFuture.completedFuture(exchange.value());
+                    }
+                    failures.incrementAndGet();
+                    if (rateLimiter.shouldRetry(status, "GET".equals(request.method()), attempt)) {
+                        return CompletableFuture.runAsync(() -> {},
+                                        CompletableFuture.delayedExecutor(GitLabRateLimiter.backoff(attempt), TimeUnit.MILLISECONDS))
+                                .thenCompose(v -> send(priority, request, attempt + 1, bodyHandler, errorBody, reader));
+                    }
+                    String body = new String(exchange.errorBody(), StandardCharsets.UTF_8);
+                    return CompletableFuture.failedFuture(new GitLabApiException(
+                            request.method() + " " + request.uri().getPath() + " failed with " + status + ": " +
+                                    (body.length() > 500 ? body.substring(0, 500) : body), status));
+                });
+    }
+
+    private static <B, T> T read(ResponseReader<B, T> reader, HttpResponse<B> response) {
+        try {
+            return reader.read(response);
+        } catch (IOException e) {
+            throw new CompletionException(new GitLabApiException(e));
+        }
+    }
+
+    private void onResponse(HttpResponse<?> response) {
+        if (response.version() == HttpClient.Version.HTTP_2) {
+            http2Responses.incrementAndGet();
+        }
+        rateLimiter.onRateLimitHeaders(response.headers().firstValue("RateLimit-Limit").orElse(null),
+                response.headers().firstValue("RateLimit-Remaining").orElse(null),
+                response.headers().firstValue("RateLimit-Reset").orElse(null));
+        if (response.statusCode() == 429) {
+            rateLimiter.onRetryAfter(response.headers().firstValue("Retry-After").orElse(null));
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long requestCount = requests.get();
+        metrics.put("requests", requestCount);
+        metrics.put("failures", failures.get());
+        metrics.put("http2Responses", http2Responses.get());
+        metrics.put("averageLatencyMillis", requestCount == 0 ? 0 : totalLatencyMillis.get() / requestCount);
+        metrics.put("connectionPoolSize", System.getProperty("jdk.httpclient.connectionPoolSize"));
+        metrics.put("keepAliveSeconds", System.getProperty("jdk.httpclient.keepalive.timeout"));
+        metrics.put("maxConnectionsPerHost", maxConnectionsPerHost);
+        hostPermits.forEach((host, permits) -> {
+            metrics.put(host + ".inFlight", permits.inUse());
+            metrics.put(host + ".queued", permits.queued());
+        });
+        return metrics;
+    }
+
+    public Map<String, Object> getResponseCacheMetrics() {
+        return responseCache.getMetrics();
+    }
+
+    SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    record Page<T>(T value, Integer nextPage) {
+    }
+
+    /**
+     * Reads a value from a response body that is streamed while it arrives.
+     */
+    @FunctionalInterface
+    public interface BodyReader<T> {
+        T read(InputStream body) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface ResponseReader<B, T> {
+        T read(HttpResponse<B> response) throws IOException;
+    }
+
+    private record Exchange<T>(HttpResponse<?> response, T value, byte[] errorBody) {
+
+        int status() {
+            return response.statusCode();
+        }
+    }
+
+    @Override
+    public void close() {
+        httpClient.shutdownNow();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,379 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import com.microfocus.octane.gitlab.model.ConfigStructure;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gitlab4j.api.GitLabApi;
+import org.gitlab4j.api.GitLabApiException;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Client side rate limiter for the requests sent to GitLab.
+ * <p>
+ * Requests take a token from a bucket refilled at the configured rate; background requests additionally take one from
+ * a smaller bucket, so they never get more than their share of the rate. The number of requests in flight is limited
+ * by an AIMD window: it is halved when GitLab answers with 429 and grows by one per window of successful requests.
+ * The {@code RateLimit-*} headers reported by GitLab pause the background requests when the quota is almost used up
+ * and all requests when it is exhausted, until the quota is reset; the {@code Retry-After} header of a 429 answer
+ * pauses all requests for the given number of seconds.
+ */
+public class GitLabRateLimiter {
+
+    private static final Logger log = LogManager.getLogger(GitLabRateLimiter.class);
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final Set<Integer> RETRYABLE_SERVER_ERRORS = Set.of(500, 502, 503, 504);
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long MAX_PAUSE_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final long DECREASE_INTERVAL_MILLIS = 1000;
+    private static final double BACKGROUND_RESERVE = 0.2;
+
+    private final TokenBucket allRequests;
+    private final TokenBucket backgroundRequests;
+    private final double backgroundShare;
+    private final int maxConcurrency;
+    private final int maxRetries;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private double concurrencyLimit;
+    private int inFlight;
+    private int backgroundInFlight;
+    private long lastDecrease;
+    private final LinkedList<AsyncWaiter> asyncWaiters = new LinkedList<>();
+
+    private volatile long pausedUntil;
+    private volatile long backgroundPausedUntil;
+    private volatile long remainingQuota = -1;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong throttledResponses = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    public GitLabRateLimiter(ConfigStructure config) {
+        double requestsPerSecond = config.getRateLimitRequestsPerSecond();
+        this.backgroundShare = Math.min(1, Math.max(0, config.getRateLimitBackgroundShare()));
+        this.allRequests = requestsPerSecond > 0 ? new TokenBucket(requestsPerSecond) : null;
+        this.backgroundRequests = requestsPerSecond > 0 ? new TokenBucket(Math.max(requestsPerSecond * backgroundShare, 0.1)) : null;
+        this.maxConcurrency = Math.max(1, config.getRateLimitMaxConcurrency());
+        this.maxRetries = Math.max(0, config.getRateLimitMaxRetries());
+        this.concurrencyLimit = maxConcurrency;
+    }
+
+    /**
+     * Executes the call once a slot is available for the given priority and retries it when GitLab throttled it (429)
+     * or, if {@code retryServerErrors} is set, when it failed with a transient server error.
+     * Requests that are not idempotent must not retry server errors, as they may have been applied anyway.
+     */
+    public <T> T execute(GitLabApi gitLabApi, RequestPriority priority, GitLabCall<T> call, boolean retryServerErrors) throws GitLabApiException {
+        for (int attempt = 0; ; attempt++) {
+            acquire(priority);
+            boolean throttled = false;
+            try {
+                return call.call(gitLabApi);
+            } catch (GitLabApiException e) {
+                throttled = e.getHttpStatus() == TOO_MANY_REQUESTS;
+                if (!shouldRetry(e.getHttpStatus(), retryServerErrors, attempt)) {
+                    throw e;
+                }
+            } finally {
+                release(priority, throttled);
+            }
+            sleep(TimeUnit.MILLISECONDS.toNanos(backoff(attempt)));
+        }
+    }
+
+    /**
+     * Non blocking variant of the slot acquisition, used by {@link GitLabHttpTransport}.
+     * The returned future completes once the request may be sent; {@link #release} must be called when it is done.
+     */
+    CompletableFuture<Void> acquireAsync(RequestPriority priority) {
+        long delay = delayNanos(priority);
+        CompletableFuture<Void> ready = delay > 0
+                ? CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS))
+                : CompletableFuture.completedFuture(null);
+        return ready.thenCompose(v -> startAsync(priority));
+    }
+
+    /**
+     * Records the outcome of a failed request and tells whether it should be retried after {@link #backoff(int)}.
+     */
+    boolean shouldRetry(int httpStatus, boolean retryServerErrors, int attempt) {
+        boolean throttled = httpStatus == TOO_MANY_REQUESTS;
+        if (throttled) {
+            throttledResponses.incrementAndGet();
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + BASE_BACKOFF_MILLIS);
+        }
+        boolean retryable = throttled || (retryServerErrors && RETRYABLE_SERVER_ERRORS.contains(httpStatus));
+        if (!retryable || attempt >= maxRetries) {
+            return false;
+        }
+        retries.incrementAndGet();
+        log.debug("GitLab answered with " + httpStatus + ", retrying the request (attempt " + (attempt + 1) + ")");
+        return true;
+    }
+
+    /**
+     * Pauses all requests for the number of seconds of the {@code Retry-After} header of a throttled (429) answer, so the
+     * retries do not come back before GitLab accepts them. Dates are not supported, the backoff applies then.
+     */
+    public void onRetryAfter(String retryAfter) {
+        if (retryAfter == null) {
+            return;
+        }
+        try {
+            long delay = Math.min(TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())), MAX_PAUSE_MILLIS);
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + delay);
+        } catch (NumberFormatException e) {
+            log.debug("Failed to parse the Retry-After header: " + retryAfter);
+        }
+    }
+
+    /**
+     * Takes the rate limit state reported by GitLab in the response headers into account.
+     */
+    public void onRateLimitHeaders(String limit, String remaining, String reset) {
+        if (remaining == null || reset == null) {
+            return;
+        }
+        try {
+            long remainingRequests = Long.parseLong(remaining.trim());
+            long now = System.currentTimeMillis();
+            long resetAt = Math.min(TimeUnit.SECONDS.toMillis(Long.parseLong(reset.trim())), now + MAX_PAUSE_MILLIS);
+            remainingQuota = remainingRequests;
+            if (remainingRequests <= 0) {
+                pausedUntil = Math.max(pausedUntil, resetAt);
+                log.warn("GitLab rate limit is exhausted, requests are paused until " + new Date(resetAt));
+            } else if (limit != null && remainingRequests < Long.parseLong(limit.trim()) * BACKGROUND_RESERVE) {
+                backgroundPausedUntil = Math.max(backgroundPausedUntil, resetAt);
+            }
+        } catch (NumberFormatException e) {
+            log.debug("Failed to parse the GitLab rate limit headers", e);
+        }
+    }
+
+    /**
+     * Whether background work should hold back before starting more requests: the quota is (almost) used up, or the
+     * webhooks and the Octane callbacks use all the slots that background requests leave to them.
+     */
+    public boolean isBackgroundThrottled() {
+        long now = System.currentTimeMillis();
+        if (pausedUntil > now || backgroundPausedUntil > now) {
+            return true;
+        }
+        lock.lock();
+        try {
+            return inFlight - backgroundInFlight >= Math.max(1, concurrencyLimit * (1 - backgroundShare));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            metrics.put("concurrencyLimit", (int) concurrencyLimit);
+            metrics.put("inFlight", inFlight);
+            metrics.put("backgroundInFlight", backgroundInFlight);
+        } finally {
+            lock.unlock();
+        }
+        metrics.put("requests", requests.get());
+        metrics.put("throttledResponses", throttledResponses.get());
+        metrics.put("retries", retries.get());
+        if (remainingQuota >= 0) {
+            metrics.put("remainingQuota", remainingQuota);
+        }
+        long now = System.currentTimeMillis();
+        if (pausedUntil > now) {
+            metrics.put("pausedUntil", new Date(pausedUntil));
+        }
+        if (backgroundPausedUntil > now) {
+            metrics.put("backgroundPausedUntil", new Date(backgroundPausedUntil));
+        }
+        return metrics;
+    }
+
+    private void acquire(RequestPriority priority) throws GitLabApiException {
+        sleep(delayNanos(priority));
+        try {
+            lock.lockInterruptibly();
+            try {
+                while (!canStart(priority)) {
+                    released.await();
+                }
+                start(priority);
+            } finally {
+                lock.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GitLabApiException("Interrupted while waiting for a GitLab request slot");
+        }
+    }
+
+    private CompletableFuture<Void> startAsync(RequestPriority priority) {
+        lock.lock();
+        try {
+            if (asyncWaiters.isEmpty() && canStart(priority)) {
+                start(priority);
+                return CompletableFuture.completedFuture(null);
+            }
+            AsyncWaiter waiter = new AsyncWaiter(priority, new CompletableFuture<>());
+            asyncWaiters.add(waiter);
+            return waiter.started();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long delayNanos(RequestPriority priority) {
+        boolean background = priority == RequestPriority.BACKGROUND;
+        long until = background ? Math.max(pausedUntil, backgroundPausedUntil) : pausedUntil;
+        long delay = TimeUnit.MILLISECONDS.toNanos(until - System.currentTimeMillis());
+        if (background && backgroundRequests != null) {
+            delay = Math.max(delay, backgroundRequests.reserve());
+        }
+        if (allRequests != null) {
+            delay = Math.max(delay, allRequests.reserve());
+        }
+        return delay;
+    }
+
+    private boolean canStart(RequestPriority priority) {
+        return inFlight < (int) concurrencyLimit &&
+                (priority != RequestPriority.BACKGROUND || backgroundInFlight < backgroundLimit());
+    }
+
+    private void start(RequestPriority priority) {
+        requests.incrementAndGet();
+        inFlight++;
+        if (priority == RequestPriority.BACKGROUND) {
+            backgroundInFlight++;
+        }
+    }
+
+    void release(RequestPriority priority, boolean throttled) {
+        List<AsyncWaiter> startedWaiters = new ArrayList<>();
+        lock.lock();
+        try {
+            inFlight--;
+            if (priority == RequestPriority.BACKGROUND) {
+                backgroundInFlight--;
+            }
+            long now = System.currentTimeMillis();
+            if (throttled) {
+                if (now - lastDecrease >= DECREASE_INTERVAL_MILLIS) {
+                    concurrencyLimit = Math.max(1, concurrencyLimit / 2);
+                    lastDecrease = now;
+                    log.info("GitLab throttled the requests, concurrency limit is decreased to " + (int) concurrencyLimit);
+                }
+            } else if (concurrencyLimit < maxConcurrency) {
+                concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1 / concurrencyLimit);
+            }
+            for (Iterator<AsyncWaiter> it = asyncWaiters.iterator(); it.hasNext(); ) {
+                AsyncWaiter waiter = it.next();
+                if (canStart(waiter.priority())) {
+                    start(waiter.priority());
+                    startedWaiters.add(waiter);
+                    it.remove();
+                }
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        startedWaiters.forEach(waiter -> waiter.started().complete(null));
+    }
+
+    private int backgroundLimit() {
+        return Math.max(1, (int) (concurrencyLimit * backgroundShare));
+    }
+
+    static long backoff(int attempt) {
+        long cap = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 10));
+        return ThreadLocalRandom.current().nextLong(cap / 2, cap + 1);
+    }
+
+    private static void sleep(long nanos) throws GitLabApiException {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GitLabApiException("Interrupted while waiting for a GitLab request slot");
+        }
+    }
+
+    private record AsyncWaiter(RequestPriority priority, CompletableFuture<Void> started) {
+    }
+
+    private static final class TokenBucket {
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        TokenBucket(double tokensPerSecond) {
+            this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = Math.max(1, tokensPerSecond);
+            this.tokens = capacity;
+        }
+
+        /**
+         * Takes a token and returns how long (in nanoseconds) the caller has to wait before it may be used.
+         */
+        synchronized long reserve() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+            tokens -= 1;
+            return tokens >= 0 ? 0 : (long) (-tokens / tokensPerNano);
+        }
+    }
+}
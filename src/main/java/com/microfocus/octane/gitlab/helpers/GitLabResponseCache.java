@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ETag cache of GitLab GET responses, used by {@link GitLabHttpTransport}.
+ * <p>
+ * For each URL it keeps the ETag, the gzip compressed body and, as long as memory allows, the parsed value.
+ * A cached URL is revalidated with {@code If-None-Match}; when GitLab answers 304 the parsed value is returned without
+ * transferring or parsing the body again. The cache is bounded by entries and by compressed bytes (LRU).
+ */
+final class GitLabResponseCache {
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long storedBytes;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong reparsed = new AtomicLong();
+
+    GitLabResponseCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    boolean isEnabled() {
+        return maxEntries > 0 && maxBytes > 0;
+    }
+
+    Entry lookup(String url) {
+        requests.incrementAndGet();
+        synchronized (this) {
+            Entry entry = entries.get(url);
+            if (entry != null) {
+                revalidations.incrementAndGet();
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * The value of an entry that GitLab reported as not modified.
+     */
+    <T> T notModified(Entry entry, Function<byte[], T> parser) {
+        notModified.incrementAndGet();
+        bytesSaved.addAndGet(entry.bodyLength);
+        @SuppressWarnings("unchecked")
+        T value = (T) entry.value.get();
+        if (value == null) {
+            reparsed.incrementAndGet();
+            value = parser.apply(decompress(entry.compressedBody));
+            entry.value = new SoftReference<>(value);
+        }
+        return value;
+    }
+
+    void store(String url, String etag, byte[] body, Object value, Integer nextPage) {
+        byte[] compressedBody = compress(body);
+        if (compressedBody.length > maxBytes) {
+            return;
+        }
+        Entry entry = new Entry(etag, compressedBody, body.length, nextPage, value);
+        synchronized (this) {
+            Entry previous = entries.put(url, entry);
+            storedBytes += compressedBody.length - (previous != null ? previous.compressedBody.length : 0);
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || storedBytes > maxBytes) && eldest.hasNext()) {
+                storedBytes -= eldest.next().getValue().compressedBody.length;
+                eldest.remove();
+            }
+        }
+    }
+
+    Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long revalidationCount = revalidations.get();
+        metrics.put("requests", requests.get());
+        metrics.put("revalidations", revalidationCount);
+        metrics.put("notModified", notModified.get());
+        metrics.put("hitRatio", revalidationCount == 0 ? 0 : (double) notModified.get() / revalidationCount);
+        metrics.put("bytesSaved", bytesSaved.get());
+        metrics.put("reparsed", reparsed.get());
+        synchronized (this) {
+            metrics.put("entries", entries.size());
+            metrics.put("storedBytes", storedBytes);
+        }
+        return metrics;
+    }
+
+    private static byte[] compress(byte[] body) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] compressedBody) {
+        try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressedBody))) {
+            return gzip.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static final class Entry {
+        final String etag;
+        final byte[] compressedBody;
+        final int bodyLength;
+        final Integer nextPage;
+        volatile SoftReference<Object> value;
+
+        Entry(String etag, byte[] compressedBody, int bodyLength, Integer nextPage, Object value) {
+            this.etag = etag;
+            this.compressedBody = compressedBody;
+            this.bodyLength = bodyLength;
+            this.nextPage = nextPage;
+            this.value = new SoftReference<>(value);
+        }
+    }
+}
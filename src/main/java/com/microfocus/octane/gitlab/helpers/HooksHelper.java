@@ -29,55 +29,380 @@
 
 package com.microfocus.octane.gitlab.helpers;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.gitlab4j.api.GitLabApi;
 import org.gitlab4j.api.GitLabApiException;
+import org.gitlab4j.api.models.Group;
 import org.gitlab4j.api.models.Project;
 import org.gitlab4j.api.models.ProjectHook;
+import org.gitlab4j.api.models.SystemHook;
 import org.gitlab4j.api.models.User;
+import org.json.JSONObject;
 
 import java.net.URL;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public final class HooksHelper {
 
     static final Logger log = LogManager.getLogger(HooksHelper.class);
+    private static final TypeReference<List<ProjectHook>> PROJECT_HOOKS = new TypeReference<>() {};
+    private static final TypeReference<ProjectHook> PROJECT_HOOK = new TypeReference<>() {};
+    private static final TypeReference<List<GroupHook>> GROUP_HOOKS = new TypeReference<>() {};
+    private static final TypeReference<GroupHook> GROUP_HOOK = new TypeReference<>() {};
+    private static final TypeReference<List<Group>> GROUPS = new TypeReference<>() {};
+    private static final TypeReference<List<SystemHook>> SYSTEM_HOOKS = new TypeReference<>() {};
+    public static final String MODE_PROJECT = "project";
+    public static final String MODE_GROUP = "group";
+    private static final String REGISTRY_NAME = "webHooks";
+    private static final TypeReference<HookRegistry> REGISTRY_TYPE = new TypeReference<>() {};
 
-    public static Boolean addWebHookToProject(GitLabApi gitLabApi,URL webhookURL, Object projectId, boolean deleteOldWebHook) throws GitLabApiException {
+    /**
+     * The id of the hook of the service in each project, by project id, as last seen.
+     */
+    private static final Map<Long, Long> knownHooks = new ConcurrentHashMap<>();
 
+    /**
+     * The id of the hook of the service in each top level group, by (lower case) group path, in the group mode.
+     * The projects of these groups get their events from the group hook and have no hook of their own.
+     */
+    private static final Map<String, Long> knownGroupHooks = new ConcurrentHashMap<>();
+
+    /**
+     * Makes sure the project has one hook to the service with the events it needs (jobs, pipelines, merge requests,
+     * and pushes and tag pushes for the {@link RefCatalog}), without touching a hook that is
+     * already correct. The hook found last time is checked first (a revalidated read); the hooks of the project are
+     * listed only when it is gone. A hook is created when none exists, and edited when its events differ; duplicates
+     * left by earlier versions are deleted.
+     *
+     * @return true when the hooks of the project were changed
+     */
+    public static boolean reconcileWebHook(GitLabApiWrapper gitLabApiWrapper, URL webhookURL, Object projectIdOrPath) throws GitLabApiException {
+        long key = toProjectId(gitLabApiWrapper, projectIdOrPath);
+        String hooksPath = "projects/" + key + "/hooks";
+        Long knownHookId = knownHooks.get(key);
+        if (knownHookId != null) {
+            try {
+                ProjectHook hook = gitLabApiWrapper.getTransport().getCached(hooksPath + "/" + knownHookId, Map.of(), PROJECT_HOOK);
+                if (webhookURL.toString().equals(hook.getUrl()) && hasRequiredEvents(hook)) {
+                    return false;
+                }
+            } catch (GitLabApiException e) {
+                if (e.getHttpStatus() != 404) {
+                    throw e;
+                }
+            }
+            knownHooks.remove(key);
+        }
+
+        List<ProjectHook> hooks = gitLabApiWrapper.getTransport().getAllPagesCached(hooksPath, Map.of(), PROJECT_HOOKS).stream()
+                .filter(hook -> webhookURL.toString().equals(hook.getUrl())).toList();
         try {
-            if(deleteOldWebHook){
-                deleteWebHooks(gitLabApi,webhookURL,projectId);
+            if (hooks.isEmpty()) {
+                ProjectHook created = gitLabApiWrapper.executeWrite(api -> api.getProjectApi().addHook(projectIdOrPath,
+                        webhookURL.toString(), requiredEvents(), false, generateNewToken()));
+                knownHooks.put(key, created.getId());
+                log.debug("Created the web hook of project " + projectIdOrPath);
+                return true;
+            }
+
+            ProjectHook hook = hooks.get(0);
+            boolean changed = false;
+            for (ProjectHook duplicate : hooks.subList(1, hooks.size())) {
+                gitLabApiWrapper.executeWrite(api -> {
+                    api.getProjectApi().deleteHook(projectIdOrPath, duplicate.getId());
+                    return null;
+                });
+                changed = true;
             }
-            ProjectHook hook = new ProjectHook();
-            hook.setJobEvents(true);
-            hook.setPipelineEvents(true);
-            hook.setMergeRequestsEvents(true);
-
-            gitLabApi.getProjectApi().addHook(projectId, webhookURL.toString(), hook, false, generateNewToken());
-        } catch (GitLabApiException e){
-            log.warn("Failed to add web hooks to project: "+projectId, e);
+            if (!hasRequiredEvents(hook)) {
+                //the listed hooks are shared with the response cache, the edit goes through a copy
+                ProjectHook update = requiredEvents();
+                update.setId(hook.getId());
+                update.setProjectId(hook.getProjectId());
+                update.setUrl(hook.getUrl());
+                gitLabApiWrapper.executeWrite(api -> api.getProjectApi().modifyHook(update));
+                log.debug("Updated the events of the web hook of project " + projectIdOrPath);
+                changed = true;
+            }
+            knownHooks.put(key, hook.getId());
+            return changed;
+        } catch (GitLabApiException e) {
+            log.warn("Failed to reconcile the web hooks of project: " + projectIdOrPath, e);
             throw e;
         }
+    }
 
-            return true;
+    /**
+     * Makes sure each top level group owned by the integration user has one hook to the service with the events of
+     * {@link #requiredEvents()} and the membership events of the group; the group hooks deliver the events of all the
+     * projects of the group and its subgroups.
+     * A group whose hook can not be added (group hooks need GitLab Premium) is left out, its projects keep their own
+     * hooks.
+     *
+     * @return the (lower case) paths of the groups covered by a hook
+     */
+    public static Set<String> reconcileGroupWebHooks(GitLabApiWrapper gitLabApiWrapper, URL webhookURL) throws GitLabApiException {
+        Set<String> covered = new HashSet<>();
+        for (Group group : getOwnedTopLevelGroups(gitLabApiWrapper)) {
+            String key = group.getFullPath().toLowerCase();
+            String hooksPath = "groups/" + group.getId() + "/hooks";
+            try {
+                List<GroupHook> hooks = gitLabApiWrapper.getTransport().getAllPagesCached(hooksPath, Map.of(), GROUP_HOOKS).stream()
+                        .filter(hook -> webhookURL.toString().equals(hook.url())).toList();
+                GroupHook kept = hooks.stream().filter(GroupHook::hasRequiredEvents).findFirst().orElse(null);
+                for (GroupHook hook : hooks) {
+                    if (hook != kept) {
+                        GitLabHttpTransport.await(gitLabApiWrapper.getTransport().writeJsonAsync(RequestPriority.current(),
+                                "DELETE", hooksPath + "/" + hook.id(), null));
+                    }
+                }
+                if (kept == null) {
+                    JSONObject body = requiredEventsJson(webhookURL).put("member_events", true).put("token", generateNewToken());
+                    GitLabResponse response = GitLabHttpTransport.await(gitLabApiWrapper.getTransport().writeJsonAsync(
+                            RequestPriority.current(), "POST", hooksPath, body.toString()));
+                    kept = gitLabApiWrapper.getTransport().readValue(response.body(), GROUP_HOOK);
+                    log.info("Created the web hook of group " + group.getFullPath());
+                }
+                knownGroupHooks.put(key, kept.id());
+                covered.add(key);
+            } catch (GitLabApiException e) {
+                knownGroupHooks.remove(key);
+                log.warn("Failed to reconcile the web hook of group " + group.getFullPath()
+                        + ", its projects get hooks of their own: " + e.getMessage());
+            }
+        }
+        return covered;
+    }
+
+    public static void deleteGroupWebHooks(GitLabApiWrapper gitLabApiWrapper, URL webhookURL) throws GitLabApiException {
+        for (Group group : getOwnedTopLevelGroups(gitLabApiWrapper)) {
+            String hooksPath = "groups/" + group.getId() + "/hooks";
+            try {
+                for (ProjectHook hook : gitLabApiWrapper.getTransport().getAllPagesCached(hooksPath, Map.of(), PROJECT_HOOKS)) {
+                    if (webhookURL.toString().equals(hook.getUrl())) {
+                        GitLabHttpTransport.await(gitLabApiWrapper.getTransport().writeJsonAsync(RequestPriority.current(),
+                                "DELETE", hooksPath + "/" + hook.getId(), null));
+                    }
+                }
+            } catch (GitLabApiException e) {
+                log.warn("Failed to delete the web hook of group " + group.getFullPath() + ": " + e.getMessage());
+            }
+            knownGroupHooks.remove(group.getFullPath().toLowerCase());
+        }
+    }
+
+    /**
+     * Whether a hook of the service is known in the project, see {@link #reconcileWebHook}.
+     */
+    public static boolean hasKnownWebHook(long projectId) {
+        return knownHooks.containsKey(projectId);
     }
 
+    /**
+     * The registry is keyed by the project id only, so a project reconciled once by path and once by id has one entry.
+     */
+    private static long toProjectId(GitLabApiWrapper gitLabApiWrapper, Object projectIdOrPath) throws GitLabApiException {
+        if (projectIdOrPath instanceof Number number) {
+            return number.longValue();
+        }
+        Long id = parseProjectId(projectIdOrPath.toString());
+        return id != null ? id : ProjectCache.getProject(gitLabApiWrapper, projectIdOrPath).getId();
+    }
 
-    public static void deleteWebHooks(List<Project> projects,URL webhookURL,GitLabApi gitLabApi) throws GitLabApiException {
-        for (Project project : projects) {
-            HooksHelper.deleteWebHooks(gitLabApi,webhookURL,project.getId());
+    private static Long parseProjectId(String projectIdOrPath) {
+        try {
+            return Long.parseLong(projectIdOrPath);
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
-    public static void deleteWebHooks(GitLabApi gitLabApi,URL webhookURL, Object projectIdOrPath) throws GitLabApiException {
-        for (ProjectHook hook : gitLabApi.getProjectApi().getHooks(projectIdOrPath)) {
+
+    /**
+     * Whether the events of the project are delivered by the hook of one of its groups: the namespace {@code a/b} of
+     * the project {@code a/b/project} is covered by a hook of {@code a} or of {@code a/b}.
+     */
+    public static boolean isCoveredByGroupHook(Project project) {
+        String path = project.getPathWithNamespace();
+        if (path == null) {
+            return false;
+        }
+        path = path.toLowerCase();
+        for (int slash = path.indexOf('/'); slash > 0; slash = path.indexOf('/', slash + 1)) {
+            if (knownGroupHooks.containsKey(path.substring(0, slash))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Makes sure an instance (system) hook to the service exists, when the integration user is an administrator.
+     * System hooks do not deliver pipeline and job events, so it only subscribes to the project events (created,
+     * renamed, transferred, deleted) that are always sent; the rest still comes from the group and project hooks.
+     *
+     * @return false when the user is not an administrator
+     */
+    public static boolean reconcileSystemHook(GitLabApiWrapper gitLabApiWrapper, URL webhookURL) throws GitLabApiException {
+        User user = gitLabApiWrapper.execute(api -> api.getUserApi().getCurrentUser());
+        if (!Boolean.TRUE.equals(user.getIsAdmin())) {
+            return false;
+        }
+        boolean exists = gitLabApiWrapper.getTransport().getAllPagesCached("hooks", Map.of(), SYSTEM_HOOKS).stream()
+                .anyMatch(hook -> webhookURL.toString().equals(hook.getUrl()));
+        if (!exists) {
+            JSONObject body = new JSONObject().put("url", webhookURL.toString()).put("token", generateNewToken())
+                    .put("push_events", false).put("tag_push_events", false).put("merge_requests_events", false)
+                    .put("repository_update_events", false).put("enable_ssl_verification", false);
+            GitLabHttpTransport.await(gitLabApiWrapper.getTransport().writeJsonAsync(RequestPriority.current(), "POST", "hooks",
+                    body.toString()));
+            log.info("Created the system hook for the project events");
+        }
+        return true;
+    }
+
+    public static void deleteSystemHook(GitLabApiWrapper gitLabApiWrapper, URL webhookURL) throws GitLabApiException {
+        User user = gitLabApiWrapper.execute(api -> api.getUserApi().getCurrentUser());
+        if (!Boolean.TRUE.equals(user.getIsAdmin())) {
+            return;
+        }
+        for (SystemHook hook : gitLabApiWrapper.getTransport().getAllPagesCached("hooks", Map.of(), SYSTEM_HOOKS)) {
+            if (webhookURL.toString().equals(hook.getUrl())) {
+                GitLabHttpTransport.await(gitLabApiWrapper.getTransport().writeJsonAsync(RequestPriority.current(),
+                        "DELETE", "hooks/" + hook.getId(), null));
+            }
+        }
+    }
+
+    /**
+     * Loads the hooks the service created before it was stopped.
+     *
+     * @return false when they were created for another web hook URL
+     */
+    public static boolean loadRegistry(StateStore stateStore, URL webhookURL) {
+        HookRegistry registry = stateStore.load(REGISTRY_NAME, REGISTRY_TYPE, HookRegistry::empty);
+        if (registry.projectHooks() != null) {
+            //earlier versions also kept projects by path, these are found again by the next hook update
+            registry.projectHooks().forEach((project, hookId) -> {
+                Long projectId = parseProjectId(project);
+                if (projectId != null) {
+                    knownHooks.put(projectId, hookId);
+                }
+            });
+        }
+        if (registry.groupHooks() != null) {
+            knownGroupHooks.putAll(registry.groupHooks());
+        }
+        return registry.url() == null || registry.url().equals(webhookURL.toString())
+               || (knownHooks.isEmpty() && knownGroupHooks.isEmpty());
+    }
+
+    public static void saveRegistry(StateStore stateStore, URL webhookURL) {
+        Map<String, Long> projectHooks = new TreeMap<>();
+        knownHooks.forEach((projectId, hookId) -> projectHooks.put(projectId.toString(), hookId));
+        stateStore.save(REGISTRY_NAME, new HookRegistry(webhookURL.toString(), projectHooks, new TreeMap<>(knownGroupHooks)));
+    }
+
+    /**
+     * Deletes the project and group hooks of the registry in parallel on the executor, without listing any hooks,
+     * and stops waiting at the deadline. The hooks that were not deleted stay in the registry.
+     *
+     * @return the number of hooks left
+     */
+    public static int deleteKnownWebHooks(GitLabApiWrapper gitLabApiWrapper, ExecutorService executor, long deadlineMillis) {
+        List<CompletableFuture<?>> deletions = new ArrayList<>();
+        AtomicInteger deleted = new AtomicInteger();
+        knownHooks.forEach((project, hookId) -> deletions.add(CompletableFuture.runAsync(() -> {
+            if (deleteHook(gitLabApiWrapper, "projects/" + project + "/hooks/" + hookId)) {
+                knownHooks.remove(project, hookId);
+                deleted.incrementAndGet();
+            }
+        }, executor)));
+        knownGroupHooks.forEach((group, hookId) -> deletions.add(CompletableFuture.runAsync(() -> {
+            if (deleteHook(gitLabApiWrapper, "groups/" + GitLabHttpTransport.pathSegment(group) + "/hooks/" + hookId)) {
+                knownGroupHooks.remove(group, hookId);
+                deleted.incrementAndGet();
+            }
+        }, executor)));
+        try {
+            CompletableFuture.allOf(deletions.toArray(CompletableFuture[]::new))
+                    .get(Math.max(0, deadlineMillis - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("The deadline of the web hook cleanup was reached");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("Failed to delete GitLab web hooks", e);
+        }
+        log.info("Deleted " + deleted.get() + " web hooks, " + (knownHooks.size() + knownGroupHooks.size()) + " left");
+        return knownHooks.size() + knownGroupHooks.size();
+    }
+
+    private static boolean deleteHook(GitLabApiWrapper gitLabApiWrapper, String hookPath) {
+        try {
+            GitLabHttpTransport.await(gitLabApiWrapper.getTransport().writeJsonAsync(RequestPriority.CRITICAL, "DELETE", hookPath, null));
+            return true;
+        } catch (GitLabApiException e) {
+            if (e.getHttpStatus() == 404) {
+                return true;
+            }
+            log.warn("Failed to delete the web hook " + hookPath + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static List<Group> getOwnedTopLevelGroups(GitLabApiWrapper gitLabApiWrapper) throws GitLabApiException {
+        return gitLabApiWrapper.getTransport().getAllPagesCached("groups",
+                Map.of("top_level_only", true, "min_access_level", 50), GROUPS);
+    }
+
+    private static JSONObject requiredEventsJson(URL webhookURL) {
+        return new JSONObject().put("url", webhookURL.toString()).put("job_events", true).put("pipeline_events", true)
+                .put("merge_requests_events", true).put("push_events", true).put("tag_push_events", true)
+                .put("enable_ssl_verification", false);
+    }
+
+    private static ProjectHook requiredEvents() {
+        ProjectHook hook = new ProjectHook();
+        hook.setJobEvents(true);
+        hook.setPipelineEvents(true);
+        hook.setMergeRequestsEvents(true);
+        hook.setPushEvents(true);
+        hook.setTagPushEvents(true);
+        return hook;
+    }
+
+    private static boolean hasRequiredEvents(ProjectHook hook) {
+        return Boolean.TRUE.equals(hook.getJobEvents()) && Boolean.TRUE.equals(hook.getPipelineEvents())
+                && Boolean.TRUE.equals(hook.getMergeRequestsEvents()) && Boolean.TRUE.equals(hook.getPushEvents())
+                && Boolean.TRUE.equals(hook.getTagPushEvents());
+    }
+
+    public static void deleteWebHooks(GitLabApiWrapper gitLabApiWrapper,URL webhookURL, Object projectIdOrPath) throws GitLabApiException {
+        List<ProjectHook> hooks = gitLabApiWrapper.getTransport().getAllPagesCached(
+                "projects/" + GitLabHttpTransport.pathSegment(projectIdOrPath) + "/hooks", Map.of(), PROJECT_HOOKS);
+        for (ProjectHook hook : hooks) {
             if (hook.getUrl().equals(webhookURL.toString())) {
                 try {
-                    gitLabApi.getProjectApi().deleteHook(projectIdOrPath, hook.getId());
+                    gitLabApiWrapper.execute(api -> {
+                        api.getProjectApi().deleteHook(projectIdOrPath, hook.getId());
+                        return null;
+                    });
+                    knownHooks.remove(toProjectId(gitLabApiWrapper, projectIdOrPath), hook.getId());
                 } catch (GitLabApiException e) {
                     log.warn("Failed to delete a GitLab web hook", e);
                 }
@@ -85,6 +410,30 @@ public final class HooksHelper {
         }
     }
 
+    /**
+     * A hook of a group, read as such since {@link ProjectHook} has no membership events. Group hooks created by
+     * earlier versions lack them and are replaced.
+     */
+    record GroupHook(Long id, String url, Boolean jobEvents, Boolean pipelineEvents, Boolean mergeRequestsEvents,
+                     Boolean pushEvents, Boolean tagPushEvents, Boolean memberEvents) {
+
+        boolean hasRequiredEvents() {
+            return Boolean.TRUE.equals(jobEvents) && Boolean.TRUE.equals(pipelineEvents)
+                    && Boolean.TRUE.equals(mergeRequestsEvents) && Boolean.TRUE.equals(pushEvents)
+                    && Boolean.TRUE.equals(tagPushEvents) && Boolean.TRUE.equals(memberEvents);
+        }
+    }
+
+    /**
+     * The hooks created by the service, persisted so they can be removed without listing the hooks of all projects.
+     */
+    public record HookRegistry(String url, Map<String, Long> projectHooks, Map<String, Long> groupHooks) {
+
+        static HookRegistry empty() {
+            return new HookRegistry(null, new TreeMap<>(), new TreeMap<>());
+        }
+    }
+
     private static String generateNewToken() {
         final SecureRandom secureRandom = new SecureRandom();
         final Base64.Encoder base64Encoder = Base64.getUrlEncoder();
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Maps the job ids the service gives to Octane back to the GitLab project, branch and job they stand for.
+ * A job id can not be parsed back unambiguously (groups, branches and job names may all contain slashes), so the
+ * identities are recorded whenever the service generates an id - the job list, the pipeline structures and the
+ * webhook events - and the Octane callbacks resolve them without probing GitLab.
+ */
+public final class JobCiIdResolver {
+
+    private static final int MAX_ENTRIES = 20000;
+
+    private static final Map<String, JobIdentity> identities = Collections.synchronizedMap(
+            new LinkedHashMap<String, JobIdentity>(1024, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, JobIdentity> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            });
+
+    private JobCiIdResolver() {
+    }
+
+    /**
+     * @param branch  the branch of a pipeline job, null for the multi-branch parent of a project
+     * @param jobName the name of a GitLab job (build), null for pipelines
+     */
+    public static void register(String jobCiId, long projectId, String pathWithNamespace, String branch, String jobName) {
+        if (jobCiId == null || pathWithNamespace == null) {
+            return;
+        }
+        identities.put(jobCiId.toLowerCase(), new JobIdentity(projectId, pathWithNamespace, branch, jobName));
+    }
+
+    public static Optional<JobIdentity> resolve(String jobCiId) {
+        return jobCiId == null ? Optional.empty() : Optional.ofNullable(identities.get(jobCiId.toLowerCase()));
+    }
+
+    /**
+     * A {@link ParsedPath} for the job id: built from the recorded identity when there is one, parsed otherwise.
+     */
+    public static ParsedPath parse(String jobCiId, GitLabApiWrapper gitLabApiWrapper, PathType pathType) {
+        return resolve(jobCiId)
+                .map(identity -> new ParsedPath(identity.pathWithNamespace(), identity.projectId(), identity.branch(), gitLabApiWrapper))
+                .orElseGet(() -> new ParsedPath(jobCiId, gitLabApiWrapper, pathType));
+    }
+
+    public record JobIdentity(long projectId, String pathWithNamespace, String branch, String jobName) {
+
+        public boolean isMultiBranchParent() {
+            return branch == null && jobName == null;
+        }
+    }
+}
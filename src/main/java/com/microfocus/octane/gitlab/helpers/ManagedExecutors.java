@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The executors of the service. Each of them has a name (also given to its threads) and a bound, and reports its
+ * queue depth, active tasks and rejections in the {@code executors} section of {@code /status}.
+ * <ul>
+ *     <li>{@link #io}: blocking GitLab and Octane calls, on virtual threads. The number of virtual threads of the pool
+ *     is the concurrency limit of the work it runs.</li>
+ *     <li>{@link #scheduler}: periodic and delayed tasks, on virtual threads as well.</li>
+ *     <li>{@link #cpu}: CPU bound work such as the parsing of test results, on as many platform threads as given, with
+ *     a bounded queue; when the queue is full, the submitting thread runs the task itself.</li>
+ * </ul>
+ */
+@Component
+@Scope("singleton")
+public class ManagedExecutors {
+
+    private static final Logger log = LogManager.getLogger(ManagedExecutors.class);
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final Map<String, Managed> executors = new LinkedHashMap<>();
+
+    public ExecutorService io(String name, int concurrency) {
+        return io(name, concurrency, Integer.MAX_VALUE);
+    }
+
+    public ExecutorService io(String name, int concurrency, int queueCapacity) {
+        int threads = Math.max(1, concurrency);
+        AtomicLong rejected = new AtomicLong();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                queue(queueCapacity), virtualThreads(name), counting(new ThreadPoolExecutor.AbortPolicy(), rejected));
+        executor.allowCoreThreadTimeOut(true);
+        return register(name, executor, rejected);
+    }
+
+    public ScheduledExecutorService scheduler(String name) {
+        return scheduler(name, 1);
+    }
+
+    public ScheduledExecutorService scheduler(String name, int threads) {
+        AtomicLong rejected = new AtomicLong();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(Math.max(1, threads), virtualThreads(name),
+                counting(new ThreadPoolExecutor.AbortPolicy(), rejected));
+        executor.setRemoveOnCancelPolicy(true);
+        return register(name, executor, rejected);
+    }
+
+    public ExecutorService cpu(String name, int threads, int queueCapacity) {
+        int size = Math.max(1, threads);
+        AtomicLong rejected = new AtomicLong();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                queue(queueCapacity), platformThreads(name), counting(new ThreadPoolExecutor.CallerRunsPolicy(), rejected));
+        executor.allowCoreThreadTimeOut(true);
+        return register(name, executor, rejected);
+    }
+
+    /**
+     * Runs a task on an executor and waits for its result, rethrowing the exception of the task.
+     */
+    public static <T> T runOn(ExecutorService executor, Callable<T> task) throws Exception {
+        try {
+            return executor.submit(task).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception exception) {
+                throw exception;
+            }
+            throw e;
+        }
+    }
+
+    public Map<String, Map<String, Object>> getMetrics() {
+        Map<String, Map<String, Object>> metrics = new LinkedHashMap<>();
+        synchronized (executors) {
+            executors.forEach((name, managed) -> {
+                Map<String, Object> executorMetrics = new LinkedHashMap<>();
+                executorMetrics.put("threads", managed.executor().getMaximumPoolSize());
+                executorMetrics.put("active", managed.executor().getActiveCount());
+                executorMetrics.put("queued", managed.executor().getQueue().size());
+                executorMetrics.put("completed", managed.executor().getCompletedTaskCount());
+                executorMetrics.put("rejected", managed.rejected().get());
+                metrics.put(name, executorMetrics);
+            });
+        }
+        return metrics;
+    }
+
+    @PreDestroy
+    private void stop() {
+        //the owners stop their executors first, whatever is left is not waited for
+        synchronized (executors) {
+            executors.values().forEach(managed -> managed.executor().shutdownNow());
+        }
+    }
+
+    private <E extends ThreadPoolExecutor> E register(String name, E executor, AtomicLong rejected) {
+        synchronized (executors) {
+            Managed previous = executors.put(name, new Managed(executor, rejected));
+            if (previous != null && !previous.executor().isShutdown()) {
+                log.warn("Executor " + name + " was created again while the previous one is still running");
+            }
+        }
+        return executor;
+    }
+
+    private static BlockingQueue<Runnable> queue(int capacity) {
+        return capacity == Integer.MAX_VALUE ? new LinkedBlockingQueue<>() : new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    private static ThreadFactory virtualThreads(String name) {
+        return Thread.ofVirtual().name(name + "-", 0).factory();
+    }
+
+    private static ThreadFactory platformThreads(String name) {
+        return Thread.ofPlatform().name(name + "-", 0).daemon(true).factory();
+    }
+
+    private static RejectedExecutionHandler counting(RejectedExecutionHandler handler, AtomicLong rejected) {
+        return (task, executor) -> {
+            rejected.incrementAndGet();
+            handler.rejectedExecution(task, executor);
+        };
+    }
+
+    private record Managed(ThreadPoolExecutor executor, AtomicLong rejected) {
+    }
+}
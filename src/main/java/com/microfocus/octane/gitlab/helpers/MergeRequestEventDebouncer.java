@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import com.microfocus.octane.gitlab.app.ApplicationSettings;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces the events of a merge request that arrive within {@code gitlab.mergeRequests.debounceMillis} of the first
+ * one, so a burst of edits (title, labels, approvals, a push) is handled once. The handler is told whether any of the
+ * coalesced events could have changed the commits of the merge request. The handlers run on their own executor, and
+ * never twice at the same time for a merge request: the events that arrive while it is handled wait for the end of
+ * that run, and are then handled together.
+ * <p>
+ * The commits and diffs last sent for a merge request are kept as well, so an update that does not change the commits
+ * reuses them and a push only needs the diffs of its new commits.
+ */
+@Component
+@Scope("singleton")
+public class MergeRequestEventDebouncer {
+
+    private static final Logger log = LogManager.getLogger(MergeRequestEventDebouncer.class);
+    private static final int CONCURRENCY = 4;
+    private static final int MAX_SENT_ENTRIES = 2000;
+
+    private final long debounceMillis;
+    private final ManagedExecutors managedExecutors;
+    private final Map<MergeRequestKey, Pending> pending = new HashMap<>();
+    private final Set<MergeRequestKey> running = new HashSet<>();
+    private final Map<MergeRequestKey, CommitDiffsFetcher.CommitDiffs> lastSent = Collections.synchronizedMap(
+            new LinkedHashMap<MergeRequestKey, CommitDiffsFetcher.CommitDiffs>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<MergeRequestKey, CommitDiffsFetcher.CommitDiffs> eldest) {
+                    return size() > MAX_SENT_ENTRIES;
+                }
+            });
+    private ScheduledExecutorService executor;
+    private ExecutorService handlerExecutor;
+
+    private final AtomicLong receivedEvents = new AtomicLong();
+    private final AtomicLong coalescedEvents = new AtomicLong();
+    private final AtomicLong handledUpdates = new AtomicLong();
+    private final AtomicLong reusedCommits = new AtomicLong();
+
+    @Autowired
+    public MergeRequestEventDebouncer(ApplicationSettings applicationSettings, ManagedExecutors managedExecutors) {
+        this(applicationSettings.getConfig().getMergeRequestsDebounceMillis(), managedExecutors);
+    }
+
+    MergeRequestEventDebouncer(long debounceMillis, ManagedExecutors managedExecutors) {
+        this.managedExecutors = managedExecutors;
+        this.debounceMillis = Math.max(0, debounceMillis);
+    }
+
+    @PostConstruct
+    private void init() {
+        executor = managedExecutors.scheduler("mergeRequestEvents");
+        handlerExecutor = managedExecutors.io("mergeRequestUpdates", CONCURRENCY);
+    }
+
+    @PreDestroy
+    private void stop() {
+        //the waiting updates still run when their window ends
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            handlerExecutor.shutdown();
+            handlerExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Schedules the handling of an event of a merge request. When an update of the same merge request is already
+     * waiting, the event joins it and the latest handler is the one that runs; when one is running, the event waits
+     * for its end. Once the service is stopping, the event is handled right away by the calling thread.
+     */
+    public void submit(long projectId, long mergeRequestIid, boolean commitsChanged, Consumer<Boolean> handler) {
+        receivedEvents.incrementAndGet();
+        MergeRequestKey key = new MergeRequestKey(projectId, mergeRequestIid);
+        Pending now;
+        synchronized (pending) {
+            Pending waiting = pending.get(key);
+            if (waiting != null) {
+                waiting.commitsChanged |= commitsChanged;
+                waiting.handler = handler;
+                coalescedEvents.incrementAndGet();
+                return;
+            }
+            Pending update = new Pending(commitsChanged, handler, System.currentTimeMillis());
+            pending.put(key, update);
+            //the end of the running update schedules this one
+            if (running.contains(key) || schedule(key, update)) {
+                return;
+            }
+            now = take(key, update);
+        }
+        run(key, now);
+    }
+
+    /**
+     * Schedules the update at the end of its window, counted from its first event.
+     *
+     * @return false when the service is stopping
+     */
+    private boolean schedule(MergeRequestKey key, Pending update) {
+        if (executor.isShutdown()) {
+            return false;
+        }
+        long delay = Math.max(0, update.firstEventMillis + debounceMillis - System.currentTimeMillis());
+        try {
+            executor.schedule(() -> handle(key, update), delay, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            log.debug("The merge request events are no longer debounced, the service is stopping");
+            return false;
+        }
+    }
+
+    /**
+     * Takes the waiting update out of the map and marks its merge request as running; called under the lock.
+     */
+    private Pending take(MergeRequestKey key, Pending update) {
+        pending.remove(key, update);
+        running.add(key);
+        return update;
+    }
+
+    private void handle(MergeRequestKey key, Pending update) {
+        synchronized (pending) {
+            take(key, update);
+        }
+        try {
+            handlerExecutor.execute(() -> run(key, update));
+        } catch (RejectedExecutionException e) {
+            run(key, update);
+        }
+    }
+
+    private void run(MergeRequestKey key, Pending update) {
+        for (Pending next = update; next != null; ) {
+            handledUpdates.incrementAndGet();
+            try {
+                next.handler.accept(next.commitsChanged);
+            } catch (Exception e) {
+                log.error("Failed to handle the update of merge request " + key.mergeRequestIid() + " of project " +
+                        key.projectId(), e);
+            }
+            synchronized (pending) {
+                running.remove(key);
+                next = pending.get(key);
+                //the events that arrived during the run are scheduled now, or handled right away once stopping
+                next = next != null && !schedule(key, next) ? take(key, next) : null;
+            }
+        }
+    }
+
+    /**
+     * The commits and diffs last sent for a merge request, or null when it was not sent since the service started.
+     */
+    public CommitDiffsFetcher.CommitDiffs getLastSent(long projectId, long mergeRequestIid) {
+        return lastSent.get(new MergeRequestKey(projectId, mergeRequestIid));
+    }
+
+    public void setLastSent(long projectId, long mergeRequestIid, CommitDiffsFetcher.CommitDiffs commitDiffs) {
+        lastSent.put(new MergeRequestKey(projectId, mergeRequestIid), commitDiffs);
+    }
+
+    public void countReusedCommits() {
+        reusedCommits.incrementAndGet();
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (pending) {
+            metrics.put("waitingUpdates", pending.size());
+            metrics.put("runningUpdates", running.size());
+        }
+        metrics.put("receivedEvents", receivedEvents.get());
+        metrics.put("coalescedEvents", coalescedEvents.get());
+        metrics.put("handledUpdates", handledUpdates.get());
+        metrics.put("updatesWithoutCommitFetch", reusedCommits.get());
+        metrics.put("knownMergeRequests", lastSent.size());
+        return metrics;
+    }
+
+    private record MergeRequestKey(long projectId, long mergeRequestIid) {
+    }
+
+    private static final class Pending {
+        private boolean commitsChanged;
+        private Consumer<Boolean> handler;
+        private final long firstEventMillis;
+
+        private Pending(boolean commitsChanged, Consumer<Boolean> handler, long firstEventMillis) {
+            this.commitsChanged = commitsChanged;
+            this.handler = handler;
+            this.firstEventMillis = firstEventMillis;
+        }
+    }
+}
@@ -32,12 +32,10 @@ package com.microfocus.octane.gitlab.helpers;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.gitlab4j.api.GitLabApi;
 import org.gitlab4j.api.GitLabApiException;
 import org.gitlab4j.api.models.Branch;
 import org.gitlab4j.api.models.Project;
 
-import jakarta.validation.constraints.NotNull;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -53,7 +51,7 @@ public class ParsedPath {
     private List<Branch> branches;
     private String currentBranch;
     private              long      id;
-    private final        GitLabApi gitlabApi;
+    private final        GitLabApiWrapper gitLabApiWrapper;
     private static final Logger    log = LogManager.getLogger(ParsedPath.class);
     private String nameWithNameSpaceForDisplayName;
 
@@ -104,14 +102,14 @@ public class ParsedPath {
         }
     }
 
-    public ParsedPath(String path, GitLabApi gitLabApi, PathType pathType) {
-        gitlabApi = gitLabApi;
+    public ParsedPath(String path, GitLabApiWrapper gitLabApiWrapper, PathType pathType) {
+        this.gitLabApiWrapper = gitLabApiWrapper;
         init(path, pathType);
     }
 
-    public ParsedPath(Project project, GitLabApi gitLabApi) {
+    public ParsedPath(Project project, GitLabApiWrapper gitLabApiWrapper) {
         this.project = project;
-        gitlabApi = gitLabApi;
+        this.gitLabApiWrapper = gitLabApiWrapper;
         this.groups = project.getNamespace().getFullPath();
         this.displayName = project.getName();
         this.pathWithNameSpace = project.getPathWithNamespace();
@@ -119,6 +117,18 @@ public class ParsedPath {
         this.nameWithNameSpaceForDisplayName = project.getNameWithNamespace();
     }
 
+    /**
+     * A path of a known project, see {@link JobCiIdResolver}; the branch is null for the default branch.
+     */
+    public ParsedPath(String pathWithNamespace, long projectId, String branch, GitLabApiWrapper gitLabApiWrapper) {
+        this.gitLabApiWrapper = gitLabApiWrapper;
+        this.pathWithNameSpace = pathWithNamespace;
+        this.id = projectId;
+        this.displayName = getLastPartOfPath(pathWithNamespace);
+        this.groups = pathWithNamespace.contains("/") ? cutLastPartOfPath(pathWithNamespace) : "";
+        this.currentBranch = branch;
+    }
+
     public String getPathWithNameSpace() {
        // return groups + "/" + displayName;
        return (this.pathWithNameSpace!= null ? this.pathWithNameSpace : this.getFullPathOfProject());
@@ -179,7 +189,7 @@ public class ParsedPath {
     public List<Branch> getBranches() {
         if (branches == null) {
             try {
-                branches = gitlabApi.getRepositoryApi().getBranches( this.getPathWithNameSpace());
+                branches = gitLabApiWrapper.execute(api -> api.getRepositoryApi().getBranches(this.getPathWithNameSpace()));
             } catch (GitLabApiException e) {
                 if (log.isDebugEnabled()) {
                     log.debug("failed while getting branches from " + this.getPathWithNameSpace(), e);
@@ -192,9 +202,9 @@ public class ParsedPath {
     }
 
     public long getId() {
-        if (project == null) {
+        if (project == null && id == 0) {
             try {
-                this.project = gitlabApi.getProjectApi().getProject(this.getPathWithNameSpace());
+                this.project = ProjectCache.getProject(gitLabApiWrapper, this.getPathWithNameSpace());
                 this.id = project.getId();
             } catch (Exception e) {
                 log.error("failed while getting project from " + this.getPathWithNameSpace());
@@ -205,7 +215,7 @@ public class ParsedPath {
     public String getNameWithNameSpaceForDisplayName(){
         if (project == null) {
             try {
-                this.project = gitlabApi.getProjectApi().getProject(this.getPathWithNameSpace());
+                this.project = ProjectCache.getProject(gitLabApiWrapper, this.getPathWithNameSpace());
             } catch (Exception e) {
                 log.warn("failed while getting project from " + this.getPathWithNameSpace());
                 return null;
@@ -219,8 +229,9 @@ public class ParsedPath {
         if(currentBranch!= null)
             return currentBranch;
 
-        if(!getBranches().isEmpty()){
-            return getDefaultBranch();
+        String defaultBranch = getDefaultBranch();
+        if(defaultBranch != null){
+            return defaultBranch;
         }else{
              throw new ArrayIndexOutOfBoundsException ("there is not branches for this project, the project is empty:"+this.displayName);
         }
@@ -231,13 +242,25 @@ public class ParsedPath {
         return currentBranch;
     }
 
-    @NotNull
+    /**
+     * Returns the default branch from the project's default_branch field, the project is fetched (through the
+     * {@link ProjectCache}) only when it is not known yet. Empty projects have no default branch.
+     */
     public String getDefaultBranch() {
-        List<Branch> branches = getBranches();
-        return branches.stream()
-                .filter(Branch::getDefault)
-                .findAny().map(Branch::getName)
-                .orElse(null);
+        if (project == null) {
+            try {
+                this.project = ProjectCache.getProject(gitLabApiWrapper, this.getPathWithNameSpace());
+                this.id = project.getId();
+            } catch (Exception e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("failed while getting the default branch of " + this.getPathWithNameSpace(), e);
+                } else {
+                    log.warn("failed while getting the default branch of " + this.getPathWithNameSpace());
+                }
+                return null;
+            }
+        }
+        return project.getDefaultBranch();
     }
 
 }
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.hp.octane.integrations.utils.SdkConstants;
+import com.microfocus.octane.gitlab.app.ApplicationSettings;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Persistent index from (project, pipeline variable name, value) to the pipeline started with that variable and its
+ * latest status. It is filled from the pipeline webhook events, which carry the variables of the pipeline, so the
+ * build status polls of Octane are answered without listing the pipelines of the project.
+ * Only the Octane execution id variable, by which the runs started from Octane are looked up, is indexed from the
+ * events; other variables (such as a long list of tests to run) would only push the useful entries out.
+ * The least recently used entries are dropped when {@code gitlab.pipelineIndex.maxEntries} is reached.
+ */
+@Component
+@Scope("singleton")
+public class PipelineParameterIndex {
+
+    public static final String INDEXED_PARAMETER = SdkConstants.JobParameters.OCTANE_AUTO_ACTION_EXECUTION_ID_PARAMETER_NAME;
+    private static final Logger log = LogManager.getLogger(PipelineParameterIndex.class);
+    private static final String STATE_NAME = "pipelineParameterIndex";
+    private static final TypeReference<Map<String, IndexedPipeline>> STATE_TYPE = new TypeReference<>() {};
+    private static final Set<String> FINAL_STATUSES = Set.of("success", "failed", "canceled", "skipped");
+    private static final int FLUSH_INTERVAL_SECONDS = 30;
+
+    private final StateStore stateStore;
+    private final ManagedExecutors managedExecutors;
+    private final int maxEntries;
+    private final Map<String, IndexedPipeline> pipelines;
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private ScheduledExecutorService flushExecutor;
+
+    @Autowired
+    public PipelineParameterIndex(ApplicationSettings applicationSettings, StateStore stateStore,
+                                  ManagedExecutors managedExecutors) {
+        this.stateStore = stateStore;
+        this.managedExecutors = managedExecutors;
+        this.maxEntries = Math.max(1, applicationSettings.getConfig().getPipelineIndexMaxEntries());
+        this.pipelines = Collections.synchronizedMap(new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, IndexedPipeline> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    @PostConstruct
+    private void init() {
+        pipelines.putAll(stateStore.load(STATE_NAME, STATE_TYPE, LinkedHashMap::new));
+        log.info("Loaded " + pipelines.size() + " entries of the pipeline parameter index");
+        flushExecutor = managedExecutors.scheduler("pipelineParameterIndex");
+        flushExecutor.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void stop() {
+        flushExecutor.shutdown();
+        flush();
+    }
+
+    /**
+     * Indexes the variables of a pipeline webhook event with the current status of the pipeline.
+     */
+    public void onPipelineEvent(JSONObject event) {
+        JSONObject attributes = event.optJSONObject("object_attributes");
+        JSONObject project = event.optJSONObject("project");
+        JSONArray variables = attributes != null ? attributes.optJSONArray("variables") : null;
+        if (project == null || variables == null || variables.isEmpty()) {
+            return;
+        }
+        String projectPath = project.getString("path_with_namespace");
+        IndexedPipeline pipeline = new IndexedPipeline(attributes.getLong("id"), attributes.optString("ref"),
+                attributes.optString("status"), System.currentTimeMillis());
+        for (int i = 0; i < variables.length(); i++) {
+            JSONObject variable = variables.getJSONObject(i);
+            if (INDEXED_PARAMETER.equals(variable.optString("key"))) {
+                put(projectPath, INDEXED_PARAMETER, variable.optString("value"), pipeline);
+            }
+        }
+    }
+
+    public void put(String projectPath, String name, String value, IndexedPipeline pipeline) {
+        //an older pipeline started with the same value must not replace the newer one; merge runs under the map's lock
+        pipelines.merge(toKey(projectPath, name, value), pipeline,
+                (previous, latest) -> previous.pipelineId() > latest.pipelineId() ? previous : latest);
+        dirty.set(true);
+    }
+
+    public Optional<IndexedPipeline> find(String projectPath, String name, String value) {
+        return Optional.ofNullable(pipelines.get(toKey(projectPath, name, value)));
+    }
+
+    private void flush() {
+        if (!dirty.getAndSet(false)) {
+            return;
+        }
+        Map<String, IndexedPipeline> snapshot;
+        synchronized (pipelines) {
+            snapshot = new LinkedHashMap<>(pipelines);
+        }
+        stateStore.save(STATE_NAME, snapshot);
+    }
+
+    private static String toKey(String projectPath, String name, String value) {
+        return projectPath.toLowerCase() + "|" + name + "=" + value;
+    }
+
+    public record IndexedPipeline(long pipelineId, String ref, String status, long updatedAt) {
+
+        @JsonIgnore
+        public boolean isFinished() {
+            return FINAL_STATUSES.contains(status);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import org.gitlab4j.api.GitLabApiException;
+import org.gitlab4j.api.models.Project;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Short-lived cache of GitLab projects, shared by all the lookups of a project by id or by path.
+ * A project is kept under both its id and its (lower case) path with namespace, so a lookup by one of them
+ * also serves the other one.
+ */
+public final class ProjectCache {
+
+    private static final long TIME_TO_LIVE = TimeUnit.MINUTES.toMillis(5);
+    private static final int MAX_ENTRIES = 4000;
+
+    private static final Map<String, CachedProject> projects = Collections.synchronizedMap(
+            new LinkedHashMap<String, CachedProject>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedProject> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            });
+
+    private ProjectCache() {
+    }
+
+    public static Project getProject(GitLabApiWrapper gitLabApiWrapper, Object projectIdOrPath) throws GitLabApiException {
+        CachedProject cached = projects.get(toKey(projectIdOrPath));
+        if (cached != null && !cached.isExpired()) {
+            return cached.project();
+        }
+
+        Project project = gitLabApiWrapper.executeShared("project", toKey(projectIdOrPath),
+                api -> api.getProjectApi().getProject(projectIdOrPath));
+        put(project);
+        return project;
+    }
+
+    public static void put(Project project) {
+        if (project == null || project.getId() == null) {
+            return;
+        }
+        CachedProject cached = new CachedProject(project, System.currentTimeMillis() + TIME_TO_LIVE);
+        projects.put(toKey(project.getId()), cached);
+        if (project.getPathWithNamespace() != null) {
+            projects.put(toKey(project.getPathWithNamespace()), cached);
+        }
+    }
+
+    public static void invalidate(Object projectIdOrPath) {
+        CachedProject cached = projects.remove(toKey(projectIdOrPath));
+        if (cached != null) {
+            projects.remove(toKey(cached.project().getId()));
+            if (cached.project().getPathWithNamespace() != null) {
+                projects.remove(toKey(cached.project().getPathWithNamespace()));
+            }
+        }
+    }
+
+    private static String toKey(Object projectIdOrPath) {
+        if (projectIdOrPath instanceof Number) {
+            return "id:" + projectIdOrPath;
+        }
+        return "path:" + projectIdOrPath.toString().toLowerCase();
+    }
+
+    private record CachedProject(Project project, long expiresAt) {
+
+        boolean isExpired() {
+            return System.currentTimeMillis() > expiresAt;
+        }
+    }
+}
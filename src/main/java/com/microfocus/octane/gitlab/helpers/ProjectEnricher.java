@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import com.microfocus.octane.gitlab.app.ApplicationSettings;
+import com.microfocus.octane.gitlab.model.ConfigStructure;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gitlab4j.api.models.Project;
+import org.gitlab4j.api.utils.JacksonJson;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+
+/**
+ * Optional GraphQL enrichment of the projects read by the project scans.
+ * The projects are queried in batches; the project variables and the variables of the ancestor groups are put into
+ * {@link VariablesHelper} and the projects into {@link ProjectCache}, so the per-project lookups that follow do not
+ * reach GitLab. When a batch cannot be read the REST lookups are used.
+ * <p>
+ * The projects given are shared with other threads and are never modified: the REST values are the fresher ones, the
+ * GraphQL default branch is only used for a project read without one, on a copy that goes into the cache.
+ * The hooks of a project are not exposed by the GraphQL API and are still read through REST.
+ */
+@Component
+@Scope("singleton")
+public class ProjectEnricher {
+
+    private static final Logger log = LogManager.getLogger(ProjectEnricher.class);
+    private static final JacksonJson JSON = new JacksonJson();
+
+    private final boolean enabled;
+    private final int batchSize;
+    private final GitLabGraphQLClient graphQLClient;
+
+    @Autowired
+    public ProjectEnricher(ApplicationSettings applicationSettings, GitLabApiWrapper gitLabApiWrapper) {
+        ConfigStructure config = applicationSettings.getConfig();
+        this.enabled = config.isGraphqlEnabled();
+        this.batchSize = Math.max(1, config.getGraphqlBatchSize());
+        URI endpoint = config.getGraphqlUrl() != null && !config.getGraphqlUrl().isEmpty()
+                ? URI.create(config.getGraphqlUrl())
+                : gitLabApiWrapper.getTransport().getGitLabUri().resolve("api/graphql");
+        this.graphQLClient = new GitLabGraphQLClient(gitLabApiWrapper.getTransport(), endpoint);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void enrich(List<Project> projects) {
+        if (!enabled) {
+            return;
+        }
+        for (int from = 0; from < projects.size(); from += batchSize) {
+            List<Project> batch = projects.subList(from, Math.min(projects.size(), from + batchSize));
+            try {
+                GitLabGraphQLClient.ProjectsMetadata metadata = graphQLClient.fetchProjects(
+                        batch.stream().map(Project::getPathWithNamespace).toList());
+                metadata.groupVariables().forEach(VariablesHelper::primeGroupVariables);
+                batch.forEach(project -> apply(project, metadata.projects().get(project.getPathWithNamespace())));
+            } catch (Exception e) {
+                log.warn("Failed to enrich " + batch.size() + " projects with GraphQL, falling back to REST: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void apply(Project project, GitLabGraphQLClient.ProjectMetadata metadata) {
+        if (metadata == null) {
+            return;
+        }
+        if (metadata.variables() != null) {
+            VariablesHelper.primeProjectVariables(project, metadata.variables());
+        }
+        if (project.getDefaultBranch() == null && metadata.defaultBranch() != null) {
+            try {
+                Project copy = JSON.unmarshal(Project.class, JSON.marshal(project));
+                copy.setDefaultBranch(metadata.defaultBranch());
+                ProjectCache.put(copy);
+                return;
+            } catch (IOException e) {
+                log.debug("Failed to copy project " + project.getId() + ", caching it as read", e);
+            }
+        }
+        ProjectCache.put(project);
+    }
+}
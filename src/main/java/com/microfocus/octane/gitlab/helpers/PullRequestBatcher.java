@@ -0,0 +1,287 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import com.hp.octane.integrations.OctaneSDK;
+import com.hp.octane.integrations.dto.scm.PullRequest;
+import com.hp.octane.integrations.services.pullrequestsandbranches.factory.PullRequestFetchParameters;
+import com.microfocus.octane.gitlab.app.ApplicationSettings;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Collects the pull requests sent to Octane per destination workspace and repository, and submits them in batches:
+ * when a batch is full, or {@code gitlab.mergeRequests.batchFlushMillis} after its first pull request. A later version
+ * of a pull request replaces the one waiting in the batch.
+ * <p>
+ * A batch that fails is retried; when it keeps failing, it is split in halves that are submitted on their own, and
+ * again down to single pull requests, so a single rejected pull request does not take the others of its batch with it.
+ * The batches are submitted (and retried) on their own executor, the flush thread only takes them; once the service
+ * is stopping they are submitted by the calling thread.
+ * <p>
+ * {@link #add} returns the outcome of the pull request: the future completes once Octane accepted it (or a later
+ * version of it), and fails when it was given up.
+ */
+@Component
+@Scope("singleton")
+public class PullRequestBatcher {
+
+    private static final Logger log = LogManager.getLogger(PullRequestBatcher.class);
+    private static final int RETRIES = 2;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final int SUBMIT_CONCURRENCY = 4;
+
+    private final int batchSize;
+    private final long flushMillis;
+    private final Map<BatchKey, Batch> batches = new LinkedHashMap<>();
+    private final ManagedExecutors managedExecutors;
+    private final Supplier<Collection<Destination>> destinations;
+    private ScheduledExecutorService flushExecutor;
+    private ExecutorService submitExecutor;
+
+    private final AtomicLong submittedBatches = new AtomicLong();
+    private final AtomicLong submittedPullRequests = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failedPullRequests = new AtomicLong();
+
+    @Autowired
+    public PullRequestBatcher(ApplicationSettings applicationSettings, ManagedExecutors managedExecutors) {
+        this(applicationSettings.getConfig().getMergeRequestsBatchSize(),
+                applicationSettings.getConfig().getMergeRequestsBatchFlushMillis(), managedExecutors,
+                () -> OctaneSDK.getClients().stream().<Destination>map(client -> (pullRequests, workspace, parameters) ->
+                        client.getPullRequestAndBranchService().sendPullRequests(pullRequests, workspace, parameters, log::info))
+                        .toList());
+    }
+
+    PullRequestBatcher(int batchSize, long flushMillis, ManagedExecutors managedExecutors,
+                       Supplier<Collection<Destination>> destinations) {
+        this.managedExecutors = managedExecutors;
+        this.destinations = destinations;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushMillis = Math.max(0, flushMillis);
+    }
+
+    @PostConstruct
+    private void init() {
+        flushExecutor = managedExecutors.scheduler("pullRequestBatches");
+        submitExecutor = managedExecutors.io("pullRequestSubmit", SUBMIT_CONCURRENCY);
+        flushExecutor.scheduleWithFixedDelay(this::flushExpired, Math.max(100, flushMillis / 2), Math.max(100, flushMillis / 2),
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void stop() {
+        flushExecutor.shutdown();
+        submitExecutor.shutdown();
+        try {
+            flushExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            submitExecutor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        //what is still waiting is submitted by the stopping thread
+        takeBatches(true).forEach(this::submit);
+    }
+
+    /**
+     * Adds a pull request to the batch of its workspace and repository.
+     *
+     * @return completes when Octane accepted the pull request, fails when it could not be sent
+     */
+    public CompletableFuture<Void> add(String repoUrl, String destinationWorkspace, PullRequest pullRequest) {
+        BatchKey key = new BatchKey(destinationWorkspace, repoUrl);
+        CompletableFuture<Void> outcome = new CompletableFuture<>();
+        List<Pending> full = null;
+        synchronized (batches) {
+            Batch batch = batches.computeIfAbsent(key, k -> new Batch(System.currentTimeMillis()));
+            Pending previous = batch.pullRequests.get(pullRequest.getId());
+            Pending pending = new Pending(pullRequest, new ArrayList<>(previous != null ? previous.outcomes() : List.of()));
+            pending.outcomes().add(outcome);
+            batch.pullRequests.put(pullRequest.getId(), pending);
+            if (batch.pullRequests.size() >= batchSize || flushMillis == 0) {
+                batches.remove(key);
+                full = new ArrayList<>(batch.pullRequests.values());
+            }
+        }
+        if (full != null) {
+            dispatch(key, full);
+        }
+        return outcome;
+    }
+
+    private void flushExpired() {
+        takeBatches(false).forEach(this::dispatch);
+    }
+
+    private void dispatch(BatchKey key, List<Pending> pullRequests) {
+        if (!submitExecutor.isShutdown()) {
+            try {
+                submitExecutor.execute(() -> submit(key, pullRequests));
+                return;
+            } catch (RejectedExecutionException e) {
+                log.debug("The pull request submission queue is full or stopped, the batch is submitted by the caller");
+            }
+        }
+        submit(key, pullRequests);
+    }
+
+    private Map<BatchKey, List<Pending>> takeBatches(boolean all) {
+        Map<BatchKey, List<Pending>> taken = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        synchronized (batches) {
+            batches.entrySet().removeIf(entry -> {
+                if (all || now - entry.getValue().created >= flushMillis) {
+                    taken.put(entry.getKey(), new ArrayList<>(entry.getValue().pullRequests.values()));
+                    return true;
+                }
+                return false;
+            });
+        }
+        return taken;
+    }
+
+    private void submit(BatchKey key, List<Pending> batch) {
+        List<PullRequest> pullRequests = batch.stream().map(Pending::pullRequest).toList();
+        PullRequestFetchParameters pullRequestFetchParameters = new PullRequestFetchParameters().setRepoUrl(key.repoUrl());
+        Set<PullRequest> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+        try {
+            for (Destination destination : destinations.get()) {
+                failed.addAll(submit(destination, key, pullRequests, pullRequestFetchParameters, RETRIES));
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to send the pull requests of " + key.repoUrl() + " to workspace " + key.destinationWorkspace(), e);
+            failed.addAll(pullRequests);
+        }
+        for (Pending pending : batch) {
+            if (failed.contains(pending.pullRequest())) {
+                pending.outcomes().forEach(outcome -> outcome.completeExceptionally(new IllegalStateException(
+                        "Failed to send pull request " + pending.pullRequest().getId() + " of " + key.repoUrl() + " to Octane")));
+            } else {
+                pending.outcomes().forEach(outcome -> outcome.complete(null));
+            }
+        }
+    }
+
+    /**
+     * @return the pull requests that could not be sent
+     */
+    private List<PullRequest> submit(Destination destination, BatchKey key, List<PullRequest> pullRequests,
+                                     PullRequestFetchParameters pullRequestFetchParameters, int maxRetries) {
+        Exception failure = null;
+        for (int attempt = 0; attempt <= maxRetries; attempt++) {
+            try {
+                destination.send(pullRequests, key.destinationWorkspace(), pullRequestFetchParameters);
+                submittedBatches.incrementAndGet();
+                submittedPullRequests.addAndGet(pullRequests.size());
+                return List.of();
+            } catch (Exception e) {
+                failure = e;
+            }
+            if (attempt < maxRetries) {
+                retries.incrementAndGet();
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS * (attempt + 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        //the halves are not retried, a failing half is split again until the rejected pull requests are found
+        if (pullRequests.size() > 1 && !Thread.currentThread().isInterrupted()) {
+            int half = pullRequests.size() / 2;
+            List<PullRequest> failed = new ArrayList<>(
+                    submit(destination, key, pullRequests.subList(0, half), pullRequestFetchParameters, 0));
+            failed.addAll(submit(destination, key, pullRequests.subList(half, pullRequests.size()), pullRequestFetchParameters, 0));
+            return failed;
+        }
+        failedPullRequests.addAndGet(pullRequests.size());
+        log.error("Failed to send " + pullRequests.size() + " pull requests of " + key.repoUrl() + " to workspace " +
+                key.destinationWorkspace(), failure);
+        return pullRequests;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        synchronized (batches) {
+            metrics.put("waitingPullRequests", batches.values().stream().mapToInt(batch -> batch.pullRequests.size()).sum());
+        }
+        metrics.put("submittedBatches", submittedBatches.get());
+        metrics.put("submittedPullRequests", submittedPullRequests.get());
+        metrics.put("retries", retries.get());
+        metrics.put("failedPullRequests", failedPullRequests.get());
+        return metrics;
+    }
+
+    /**
+     * Where the batches go: each Octane client of the service, or a stand-in in the tests.
+     */
+    @FunctionalInterface
+    interface Destination {
+        void send(List<PullRequest> pullRequests, String destinationWorkspace, PullRequestFetchParameters parameters) throws Exception;
+    }
+
+    private record BatchKey(String destinationWorkspace, String repoUrl) {
+    }
+
+    //a pull request waiting in a batch, with the outcomes of its earlier versions that it replaced
+    private record Pending(PullRequest pullRequest, List<CompletableFuture<Void>> outcomes) {
+    }
+
+    private static final class Batch {
+        private final long created;
+        private final Map<String, Pending> pullRequests = new LinkedHashMap<>();
+
+        private Batch(long created) {
+            this.created = created;
+        }
+    }
+}
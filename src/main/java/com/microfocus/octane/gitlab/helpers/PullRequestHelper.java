@@ -29,7 +29,6 @@
 
 package com.microfocus.octane.gitlab.helpers;
 
-import com.hp.octane.integrations.OctaneSDK;
 import com.hp.octane.integrations.dto.DTOFactory;
 import com.hp.octane.integrations.dto.scm.PullRequest;
 import com.hp.octane.integrations.dto.scm.SCMChange;
@@ -38,19 +37,15 @@ import com.hp.octane.integrations.dto.scm.SCMRepository;
 import com.hp.octane.integrations.dto.scm.SCMType;
 import com.hp.octane.integrations.services.entities.QueryHelper;
 import com.hp.octane.integrations.services.pullrequestsandbranches.bitbucketserver.pojo.EntityCollection;
-import com.hp.octane.integrations.services.pullrequestsandbranches.factory.PullRequestFetchParameters;
 import com.hp.octane.integrations.uft.items.OctaneStatus;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.gitlab4j.api.GitLabApi;
 import org.gitlab4j.api.GitLabApiException;
 import org.gitlab4j.api.models.Commit;
-import org.gitlab4j.api.models.Diff;
 import org.gitlab4j.api.models.MergeRequest;
 
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -92,23 +87,8 @@ public class PullRequestHelper {
                 .setCommits(mergeRequestCommits);
     }
 
-    public static void sendPullRequestToOctane(String repoUrl, PullRequest pullRequest, String destinationWorkspace) {
-        PullRequestFetchParameters pullRequestFetchParameters = new PullRequestFetchParameters()
-                .setRepoUrl(repoUrl);
-
-        OctaneSDK.getClients().forEach(client -> {
-            try {
-                client.getPullRequestAndBranchService()
-                        .sendPullRequests(Collections.singletonList(pullRequest), destinationWorkspace,
-                                pullRequestFetchParameters, log::info);
-            } catch (IOException e) {
-                log.error(e.getMessage(), e);
-            }
-        });
-    }
-
-    public static void convertAndSendMergeRequestToOctane(MergeRequest mergeRequest, List<Commit> mrCommits, Map<String,
-            List<Diff>> mrCommitDiffs, String repoUrl, String destinationWS) {
+    public static PullRequest convertMergeRequest(MergeRequest mergeRequest, List<Commit> mrCommits, Map<String,
+            List<CommitDiffsFetcher.FileChange>> mrCommitDiffs, String repoUrl) {
         SCMRepository sourceScmRepository =
                 PullRequestHelper.createGitScmRepository(repoUrl, mergeRequest.getSourceBranch());
         SCMRepository targetScmRepository =
@@ -116,13 +96,12 @@ public class PullRequestHelper {
 
         List<SCMCommit> pullRequestCommits = convertMergeRequestCommits(mrCommits, mrCommitDiffs);
 
-        PullRequest pullRequest = PullRequestHelper.createPullRequest(mergeRequest, sourceScmRepository,
+        return PullRequestHelper.createPullRequest(mergeRequest, sourceScmRepository,
                 targetScmRepository, pullRequestCommits);
-
-        sendPullRequestToOctane(repoUrl, pullRequest, destinationWS);
     }
 
-    public static List<SCMCommit> convertMergeRequestCommits(List<Commit> commits, Map<String, List<Diff>> commitDiffs) {
+    public static List<SCMCommit> convertMergeRequestCommits(List<Commit> commits,
+                                                             Map<String, List<CommitDiffsFetcher.FileChange>> commitDiffs) {
         return commits.stream()
                 .map(commit -> {
                     SCMCommit cm = dtoFactory.newDTO(SCMCommit.class);
@@ -135,15 +114,15 @@ public class PullRequestHelper {
                             : (commit.getParentIds().isEmpty() ? null : commit.getParentIds().get(0)));
                     cm.setComment(commit.getMessage());
 
-                    List<Diff> diffs = commitDiffs.get(commit.getId()) != null
+                    List<CommitDiffsFetcher.FileChange> diffs = commitDiffs.get(commit.getId()) != null
                             ? commitDiffs.get(commit.getId())
                             : new ArrayList<>();
 
                     List<SCMChange> changes = new ArrayList<>();
                     diffs.forEach(d -> {
                         SCMChange change = dtoFactory.newDTO(SCMChange.class);
-                        change.setFile(d.getNewPath());
-                        change.setType(d.getNewFile() ? "add" : d.getDeletedFile() ? "delete" : "edit");
+                        change.setFile(d.newPath());
+                        change.setType(d.changeType());
                         changes.add(change);
                     });
 
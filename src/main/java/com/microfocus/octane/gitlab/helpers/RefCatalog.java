@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.gitlab4j.api.GitLabApiException;
+import org.gitlab4j.api.models.Branch;
+import org.gitlab4j.api.models.Tag;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Branches and tags of the projects, kept current by the push and tag push events of the project hooks.
+ * The refs of a project are read from GitLab on the first lookup only (and after {@link #TIME_TO_LIVE}, in case
+ * events were missed); the events received while they are read are applied once they are. Lookups are filtered locally with the semantics of the GitLab {@code search} parameter:
+ * {@code ^term} matches the refs that begin with the term, {@code term$} those that end with it, and any other term
+ * the refs that contain it, ignoring case.
+ */
+@Component
+@Scope("singleton")
+public class RefCatalog {
+
+    private static final long TIME_TO_LIVE = TimeUnit.HOURS.toMillis(1);
+    private static final int MAX_PROJECTS = 1000;
+    private static final String NO_COMMIT = "0000000000000000000000000000000000000000";
+    private static final String BRANCH_PREFIX = "refs/heads/";
+    private static final String TAG_PREFIX = "refs/tags/";
+    private static final TypeReference<List<Branch>> BRANCHES = new TypeReference<>() {};
+    private static final TypeReference<List<Tag>> TAGS = new TypeReference<>() {};
+
+    private final GitLabApiWrapper gitLabApiWrapper;
+    private final Map<String, ProjectRefs> projects = Collections.synchronizedMap(
+            new LinkedHashMap<String, ProjectRefs>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ProjectRefs> eldest) {
+                    return size() > MAX_PROJECTS;
+                }
+            });
+
+    /**
+     * The push events received while the refs of a project are read, one buffer per read in progress, by project.
+     * The listing may have been taken before or after an event, so the events are applied again once it is done.
+     */
+    private final Map<String, List<List<JSONObject>>> loadingEvents = new HashMap<>();
+
+    @Autowired
+    public RefCatalog(GitLabApiWrapper gitLabApiWrapper) {
+        this.gitLabApiWrapper = gitLabApiWrapper;
+    }
+
+    public List<String> findBranches(String projectPath, String search) throws GitLabApiException {
+        return getRefs(projectPath).branches().find(search);
+    }
+
+    public List<String> findTags(String projectPath, String search) throws GitLabApiException {
+        return getRefs(projectPath).tags().find(search);
+    }
+
+    /**
+     * Applies a push or tag push event to the refs of the project, if they are known or being read.
+     */
+    public void onPushEvent(JSONObject event) {
+        JSONObject project = event.optJSONObject("project");
+        if (project == null || event.optString("ref").isEmpty()) {
+            return;
+        }
+        String key = project.getString("path_with_namespace").toLowerCase(Locale.ROOT);
+        synchronized (loadingEvents) {
+            loadingEvents.getOrDefault(key, List.of()).forEach(buffer -> buffer.add(event));
+        }
+        ProjectRefs refs = projects.get(key);
+        if (refs != null) {
+            apply(refs, event);
+        }
+    }
+
+    private static void apply(ProjectRefs refs, JSONObject event) {
+        String ref = event.getString("ref");
+        RefIndex index;
+        String name;
+        if (ref.startsWith(BRANCH_PREFIX)) {
+            index = refs.branches();
+            name = ref.substring(BRANCH_PREFIX.length());
+        } else if (ref.startsWith(TAG_PREFIX)) {
+            index = refs.tags();
+            name = ref.substring(TAG_PREFIX.length());
+        } else {
+            return;
+        }
+        if (NO_COMMIT.equals(event.optString("after"))) {
+            index.remove(name);
+        } else {
+            index.add(name);
+        }
+    }
+
+    /**
+     * Forgets the refs of a project that was renamed, transferred or deleted; they are read again on the next lookup.
+     */
+    public void invalidate(String projectPath) {
+        projects.remove(projectPath.toLowerCase(Locale.ROOT));
+    }
+
+    private ProjectRefs getRefs(String projectPath) throws GitLabApiException {
+        String key = projectPath.toLowerCase(Locale.ROOT);
+        ProjectRefs refs = projects.get(key);
+        if (refs != null && refs.loadedAt() + TIME_TO_LIVE > System.currentTimeMillis()) {
+            return refs;
+        }
+
+        List<JSONObject> buffer = new ArrayList<>();
+        synchronized (loadingEvents) {
+            loadingEvents.computeIfAbsent(key, k -> new ArrayList<>()).add(buffer);
+        }
+        try {
+            GitLabHttpTransport transport = gitLabApiWrapper.getTransport();
+            RequestPriority priority = RequestPriority.current();
+            String repositoryPath = "projects/" + GitLabHttpTransport.pathSegment(projectPath) + "/repository/";
+            CompletableFuture<List<Branch>> branches = transport.getAllPagesCachedAsync(priority, repositoryPath + "branches", Map.of(), BRANCHES);
+            CompletableFuture<List<Tag>> tags = transport.getAllPagesCachedAsync(priority, repositoryPath + "tags", Map.of(), TAGS);
+            ProjectRefs loaded = new ProjectRefs(new RefIndex(), new RefIndex(), System.currentTimeMillis());
+            GitLabHttpTransport.await(branches).forEach(branch -> loaded.branches().add(branch.getName()));
+            GitLabHttpTransport.await(tags).forEach(tag -> loaded.tags().add(tag.getName()));
+            synchronized (loadingEvents) {
+                buffer.forEach(event -> apply(loaded, event));
+                projects.put(key, loaded);
+            }
+            return loaded;
+        } finally {
+            synchronized (loadingEvents) {
+                List<List<JSONObject>> buffers = loadingEvents.get(key);
+                buffers.removeIf(other -> other == buffer);
+                if (buffers.isEmpty()) {
+                    loadingEvents.remove(key);
+                }
+            }
+        }
+    }
+
+    private record ProjectRefs(RefIndex branches, RefIndex tags, long loadedAt) {
+    }
+
+    /**
+     * Ref names sorted ignoring case, so a prefix lookup reads only the matching range.
+     */
+    static final class RefIndex {
+
+        //keyed by the lower case name followed by the name, so names differing only in case are all kept
+        private final NavigableMap<String, String> names = new ConcurrentSkipListMap<>();
+
+        void add(String name) {
+            names.put(key(name), name);
+        }
+
+        void remove(String name) {
+            names.remove(key(name));
+        }
+
+        List<String> find(String search) {
+            if (search == null || search.isEmpty()) {
+                return new ArrayList<>(names.values());
+            }
+            String term = search.toLowerCase(Locale.ROOT);
+            boolean prefix = term.startsWith("^");
+            boolean suffix = term.endsWith("$") && term.length() > (prefix ? 1 : 0);
+            term = term.substring(prefix ? 1 : 0, suffix ? term.length() - 1 : term.length());
+
+            Collection<String> candidates = prefix ? names.subMap(term, true, term + Character.MAX_VALUE, true).values() : names.values();
+            List<String> result = new ArrayList<>();
+            for (String name : candidates) {
+                String lowerCaseName = name.toLowerCase(Locale.ROOT);
+                boolean matches = prefix && suffix ? lowerCaseName.equals(term)
+                        : prefix ? lowerCaseName.startsWith(term)
+                        : suffix ? lowerCaseName.endsWith(term)
+                        : lowerCaseName.contains(term);
+                if (matches) {
+                    result.add(name);
+                }
+            }
+            return result;
+        }
+
+        private static String key(String name) {
+            return name.toLowerCase(Locale.ROOT) + '\0' + name;
+        }
+    }
+}
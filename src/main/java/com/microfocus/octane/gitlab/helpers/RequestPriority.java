@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import java.util.function.Supplier;
+
+/**
+ * Priority class of the GitLab requests sent by the current thread.
+ * Webhook handling and Octane callbacks run as CRITICAL (the default), scans and other bulk work run as BACKGROUND,
+ * so they can't use up the GitLab rate limit that the events depend on.
+ */
+public enum RequestPriority {
+    CRITICAL,
+    BACKGROUND;
+
+    private static final ThreadLocal<RequestPriority> current = ThreadLocal.withInitial(() -> CRITICAL);
+
+    public static RequestPriority current() {
+        return current.get();
+    }
+
+    public void run(Runnable task) {
+        RequestPriority previous = current.get();
+        current.set(this);
+        try {
+            task.run();
+        } finally {
+            current.set(previous);
+        }
+    }
+
+    public <T> T supply(Supplier<T> task) {
+        RequestPriority previous = current.get();
+        current.set(this);
+        try {
+            return task.get();
+        } finally {
+            current.set(previous);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import org.gitlab4j.api.GitLabApiException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical GitLab reads: while a read of a resource is in flight, the callers asking for the
+ * same resource wait for it and share its result (or its failure) instead of sending their own request.
+ * Nothing is kept once the read completed; the results are shared, so callers must not modify them.
+ * <p>
+ * A CRITICAL caller only joins a CRITICAL read: a BACKGROUND read waits behind the background share of the rate
+ * limiter, and joining it would make the webhook wait as well. A BACKGROUND caller joins any read in flight.
+ */
+final class SingleFlight {
+
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Counters> countersByKind = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    interface Call<T> {
+        T call() throws GitLabApiException;
+    }
+
+    /**
+     * Executes the call, unless the same resource is already being read by another thread.
+     *
+     * @param kind     the kind of resource, used for the metrics
+     * @param key      identifies the resource within its kind
+     * @param priority the priority the call is sent with
+     */
+    @SuppressWarnings("unchecked")
+    <T> T execute(String kind, Object key, RequestPriority priority, Call<T> call) throws GitLabApiException {
+        Counters counters = counters(kind);
+        String flightKey = flightKey(kind, key, priority);
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = join(kind, key, priority, flightKey, flight);
+        if (existing != null) {
+            counters.collapsed.incrementAndGet();
+            return (T) GitLabHttpTransport.await(existing.copy());
+        }
+
+        counters.executed.incrementAndGet();
+        try {
+            T result = call.call();
+            flight.complete(result);
+            return result;
+        } catch (GitLabApiException | RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(flightKey, flight);
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #execute(String, Object, RequestPriority, Call)}. Each caller gets its own
+     * future, so cancelling it does not affect the other callers.
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> executeAsync(String kind, Object key, RequestPriority priority,
+                                          Supplier<CompletableFuture<T>> call) {
+        Counters counters = counters(kind);
+        String flightKey = flightKey(kind, key, priority);
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> existing = join(kind, key, priority, flightKey, flight);
+        if (existing != null) {
+            counters.collapsed.incrementAndGet();
+            return (CompletableFuture<T>) existing.copy();
+        }
+
+        counters.executed.incrementAndGet();
+        CompletableFuture<T> result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((value, e) -> {
+            inFlight.remove(flightKey, flight);
+            if (e != null) {
+                flight.completeExceptionally(e);
+            } else {
+                flight.complete(value);
+            }
+        });
+        return (CompletableFuture<T>) flight.copy();
+    }
+
+    /**
+     * Returns the read in flight the caller joins, or null after registering {@code flight} as the caller's own read.
+     */
+    private CompletableFuture<Object> join(String kind, Object key, RequestPriority priority, String flightKey,
+                                           CompletableFuture<Object> flight) {
+        if (priority == RequestPriority.BACKGROUND) {
+            CompletableFuture<Object> critical = inFlight.get(flightKey(kind, key, RequestPriority.CRITICAL));
+            if (critical != null) {
+                return critical;
+            }
+        }
+        return inFlight.putIfAbsent(flightKey, flight);
+    }
+
+    private static String flightKey(String kind, Object key, RequestPriority priority) {
+        return kind + ":" + priority + ":" + key;
+    }
+
+    private Counters counters(String kind) {
+        return countersByKind.computeIfAbsent(kind, k -> new Counters());
+    }
+
+    Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long executed = 0;
+        long collapsed = 0;
+        for (Counters counters : countersByKind.values()) {
+            executed += counters.executed.get();
+            collapsed += counters.collapsed.get();
+        }
+        metrics.put("executed", executed);
+        metrics.put("collapsed", collapsed);
+        metrics.put("collapseRatio", executed + collapsed == 0 ? 0 : (double) collapsed / (executed + collapsed));
+        metrics.put("inFlight", inFlight.size());
+        countersByKind.forEach((kind, counters) -> {
+            metrics.put(kind + ".executed", counters.executed.get());
+            metrics.put(kind + ".collapsed", counters.collapsed.get());
+        });
+        return metrics;
+    }
+
+    private static final class Counters {
+        private final AtomicLong executed = new AtomicLong();
+        private final AtomicLong collapsed = new AtomicLong();
+    }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microfocus.octane.gitlab.app.ApplicationSettings;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the state the service needs across restarts as JSON files in {@code gitlab.stateFolderPath}.
+ * A file is written to a temporary file first and then moved over the previous version, so a crash while saving
+ * leaves the previous state readable.
+ */
+@Component
+@Scope("singleton")
+public class StateStore {
+
+    private static final Logger log = LogManager.getLogger(StateStore.class);
+    private static final String EXTENSION = ".json";
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final Path folder;
+
+    @Autowired
+    public StateStore(ApplicationSettings applicationSettings) {
+        this.folder = Paths.get(applicationSettings.getConfig().getStateFolderPath());
+    }
+
+    /**
+     * Reads a state file; a missing or unreadable file yields the empty state.
+     */
+    public <T> T load(String name, TypeReference<T> type, Supplier<T> empty) {
+        Path file = folder.resolve(name + EXTENSION);
+        if (!Files.exists(file)) {
+            return empty.get();
+        }
+        try {
+            T state = objectMapper.readValue(file.toFile(), type);
+            return state != null ? state : empty.get();
+        } catch (IOException e) {
+            log.warn("Failed to read the state file " + file + ", starting with an empty state", e);
+            return empty.get();
+        }
+    }
+
+    public synchronized void save(String name, Object state) {
+        Path file = folder.resolve(name + EXTENSION);
+        try {
+            Files.createDirectories(folder);
+            Path temporary = folder.resolve(name + EXTENSION + ".tmp");
+            objectMapper.writeValue(temporary.toFile(), state);
+            try {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to save the state file " + file, e);
+        }
+    }
+}
@@ -29,6 +29,7 @@
 
 package com.microfocus.octane.gitlab.helpers;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.hp.octane.integrations.dto.DTOFactory;
 import com.hp.octane.integrations.dto.parameters.CIParameter;
 import com.hp.octane.integrations.dto.parameters.CIParameterType;
@@ -36,7 +37,6 @@ import com.hp.octane.integrations.dto.parameters.CIParameters;
 import com.microfocus.octane.gitlab.model.ConfigStructure;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.gitlab4j.api.GitLabApi;
 import org.gitlab4j.api.GitLabApiException;
 import org.gitlab4j.api.models.Project;
 import org.gitlab4j.api.models.Variable;
@@ -48,6 +48,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public final class VariablesHelper {
 
@@ -57,6 +59,13 @@ public final class VariablesHelper {
     private static final String VARS_ON_PROJECT = "project";
     private static final String VARS_ON_GROUPS = "groups";
     private static final String VARS_ON_INSTANCE = "instance";
+    private static final TypeReference<List<Variable>> VARIABLES = new TypeReference<>() {};
+    private static final TypeReference<Variable> VARIABLE = new TypeReference<>() {};
+    private static final String PROJECT_PREFIX = "project:";
+    private static final String GROUP_PREFIX = "group:";
+    private static final long PRIMED_TTL_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    private static final int MAX_PRIMED_ENTRIES = 20000;
+    private static final Map<String, PrimedVariables> primedVariables = new ConcurrentHashMap<>();
 
 
     private static final DTOFactory dtoFactory = DTOFactory.getInstance();
@@ -87,7 +96,7 @@ public final class VariablesHelper {
         return variables;
     }
 
-    public static List<Variable> getVariables(ParsedPath project, GitLabApi gitLabApi, ConfigStructure appConfig){
+    public static List<Variable> getVariables(ParsedPath project, GitLabApiWrapper gitLabApiWrapper, ConfigStructure appConfig){
         List<Variable> variables = new ArrayList<>();
         if(project == null || project.getFullPathOfProject() == null){
             return variables;
@@ -97,7 +106,11 @@ public final class VariablesHelper {
             log.info("getting all defined variables from levels: "+variablesUsage.toString() + ", on project: "+ project.getPathWithNameSpace()) ;
 
             if(variablesUsage.isEmpty() || variablesUsage.contains(VARS_ON_PROJECT) ){
-                List<Variable> variablesOnProject = gitLabApi.getProjectApi().getVariables(project.getPathWithNameSpace());
+                List<Variable> variablesOnProject = primed(PROJECT_PREFIX + project.getPathWithNameSpace().toLowerCase());
+                if (variablesOnProject == null) {
+                    variablesOnProject = gitLabApiWrapper.getTransport().getAllPagesCached(
+                            "projects/" + GitLabHttpTransport.pathSegment(project.getPathWithNameSpace()) + "/variables", Map.of(), VARIABLES);
+                }
                 variables.addAll(variablesOnProject);
             }
 
@@ -105,7 +118,7 @@ public final class VariablesHelper {
                 List<String> groupsFullPath = ParsedPath.getGroupFullPathFromProject(project.getPathWithNameSpace());
                 for(String group :groupsFullPath){
                     try {
-                        List<Variable> variablesOnGroup = gitLabApi.getGroupApi().getVariables(group);
+                        List<Variable> variablesOnGroup = getGroupVariables(gitLabApiWrapper, group);
                         if(variablesOnGroup.isEmpty()){
                             if (log.isDebugEnabled()) {
                                 log.warn("can not find variables for the group:" + group);
@@ -122,9 +135,10 @@ public final class VariablesHelper {
             }
 
             if(variablesUsage.contains(VARS_ON_INSTANCE)){//supported only from gitlab 13
-                GitLabAPiClientImpl apiClient = new GitLabAPiClientImpl(appConfig.getGitlabLocation(), appConfig.getGitlabPersonalAccessToken());
+                GitLabAPiClientImpl apiClient = new GitLabAPiClientImpl(appConfig.getGitlabLocation(),
+                        appConfig.getGitlabPersonalAccessToken(), gitLabApiWrapper.getRateLimiter());
 
-                List<Variable> variablesOnInstance =  apiClient.getInstanceVariables();
+                List<Variable> variablesOnInstance = gitLabApiWrapper.execute(api -> apiClient.getInstanceVariables());
                 variables.addAll(variablesOnInstance);
             }
 
@@ -147,10 +161,15 @@ public final class VariablesHelper {
         return variableList;
     }
 
-    public static Optional<Variable> getProjectVariable(GitLabApi gitLabApi, long projectId, String variableName) {
+    public static Optional<Variable> getProjectVariable(GitLabApiWrapper gitLabApiWrapper, long projectId, String variableName) {
+        List<Variable> projectVariables = primed(PROJECT_PREFIX + projectId);
+        if (projectVariables != null) {
+            return projectVariables.stream().filter(variable -> variable.getKey().equals(variableName)).findFirst();
+        }
         Variable variable = null;
         try {
-            variable = gitLabApi.getProjectApi().getVariable(projectId, variableName);
+            variable = gitLabApiWrapper.getTransport().getCached(
+                    "projects/" + projectId + "/variables/" + GitLabHttpTransport.pathSegment(variableName), Map.of(), VARIABLE);
         } catch (GitLabApiException apiException) {
             if(log.isDebugEnabled()){log.warn("Variable " + variableName + " could not be obtained for project with id " + projectId + ". " +
                     apiException.getMessage());}
@@ -159,14 +178,14 @@ public final class VariablesHelper {
         return Optional.ofNullable(variable);
     }
 
-    public static Map<String, String> getProjectGroupVariables(GitLabApi gitLabApi, Project project, ConfigStructure appConfig) {
+    public static Map<String, String> getProjectGroupVariables(GitLabApiWrapper gitLabApiWrapper, Project project, ConfigStructure appConfig) {
         Map<String, String> variablesKeyValuePairs = new HashMap<>();
 
         if(appConfig.getGitlabVariablesPipelineUsage().contains(VARS_ON_GROUPS)) {
             List<String> groupsFullPath = ParsedPath.getGroupFullPathFromProject(project.getPathWithNamespace());
             groupsFullPath.forEach(group -> {
                 try {
-                    List<Variable> variablesOnGroup = gitLabApi.getGroupApi().getVariables(group);
+                    List<Variable> variablesOnGroup = getGroupVariables(gitLabApiWrapper, group);
                     if(variablesOnGroup.isEmpty()){
                         if (log.isDebugEnabled()) {
                             log.warn("can not find variables for the group:" + group);
@@ -182,4 +201,52 @@ public final class VariablesHelper {
         }
         return variablesKeyValuePairs;
     }
+
+    /**
+     * Keeps the variables of a project read in a batch (see {@link ProjectEnricher}) for the lookups that follow.
+     */
+    public static void primeProjectVariables(Project project, List<Variable> variables) {
+        PrimedVariables entry = new PrimedVariables(variables, System.currentTimeMillis() + PRIMED_TTL_MILLIS);
+        prime(PROJECT_PREFIX + project.getId(), entry);
+        prime(PROJECT_PREFIX + project.getPathWithNamespace().toLowerCase(), entry);
+    }
+
+    public static void primeGroupVariables(String group, List<Variable> variables) {
+        prime(GROUP_PREFIX + group.toLowerCase(), new PrimedVariables(variables, System.currentTimeMillis() + PRIMED_TTL_MILLIS));
+    }
+
+    private static void prime(String key, PrimedVariables variables) {
+        if (primedVariables.size() >= MAX_PRIMED_ENTRIES) {
+            long now = System.currentTimeMillis();
+            primedVariables.values().removeIf(entry -> entry.expiresAt() < now);
+            if (primedVariables.size() >= MAX_PRIMED_ENTRIES) {
+                return;
+            }
+        }
+        primedVariables.put(key, variables);
+    }
+
+    private static List<Variable> primed(String key) {
+        PrimedVariables entry = primedVariables.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt() < System.currentTimeMillis()) {
+            primedVariables.remove(key, entry);
+            return null;
+        }
+        return entry.variables();
+    }
+
+    private static List<Variable> getGroupVariables(GitLabApiWrapper gitLabApiWrapper, String group) throws GitLabApiException {
+        List<Variable> variables = primed(GROUP_PREFIX + group.toLowerCase());
+        if (variables != null) {
+            return variables;
+        }
+        return gitLabApiWrapper.getTransport().getAllPagesCached(
+                "groups/" + GitLabHttpTransport.pathSegment(group) + "/variables", Map.of(), VARIABLES);
+    }
+
+    private record PrimedVariables(List<Variable> variables, long expiresAt) {
+    }
 }
@@ -121,9 +121,111 @@ public class ConfigStructure {
     @Value("${gitlab.mergeRequests.mergeRequestHistoryFolderPath:projectHistory}")
     private String mergeRequestHistoryFolderPath;
 
+    @Value("${gitlab.mergeRequests.backfillConcurrency:4}")
+    private int mergeRequestsBackfillConcurrency;
+
+    @Value("${gitlab.mergeRequests.batchSize:50}")
+    private int mergeRequestsBatchSize;
+
+    @Value("${gitlab.mergeRequests.batchFlushMillis:2000}")
+    private long mergeRequestsBatchFlushMillis;
+
+    @Value("${gitlab.mergeRequests.debounceMillis:3000}")
+    private long mergeRequestsDebounceMillis;
+
     @Value("${gitlab.codeCoverage.variables.generatedCoverageReportFilePathVarName:jacocoReportPath}")
     private String generatedCoverageReportFilePathVariableName;
 
+    @Value("${gitlab.commitDiffs.poolSize:32}")
+    private int commitDiffsPoolSize;
+
+    @Value("${gitlab.commitDiffs.perEventConcurrency:8}")
+    private int commitDiffsPerEventConcurrency;
+
+    @Value("${gitlab.commitDiffs.maxCommitsPerEvent:500}")
+    private int maxCommitsPerEvent;
+
+    @Value("${gitlab.rateLimit.requestsPerSecond:0}")
+    private double rateLimitRequestsPerSecond;
+
+    @Value("${gitlab.rateLimit.backgroundShare:0.5}")
+    private double rateLimitBackgroundShare;
+
+    @Value("${gitlab.rateLimit.maxConcurrency:16}")
+    private int rateLimitMaxConcurrency;
+
+    @Value("${gitlab.rateLimit.maxRetries:3}")
+    private int rateLimitMaxRetries;
+
+    @Value("${gitlab.transport.http2:true}")
+    private boolean transportHttp2;
+
+    @Value("${gitlab.transport.connectionPoolSize:64}")
+    private int transportConnectionPoolSize;
+
+    @Value("${gitlab.transport.maxConnectionsPerHost:32}")
+    private int transportMaxConnectionsPerHost;
+
+    @Value("${gitlab.transport.keepAliveSeconds:30}")
+    private int transportKeepAliveSeconds;
+
+    @Value("${gitlab.transport.connectTimeoutSeconds:10}")
+    private int transportConnectTimeoutSeconds;
+
+    @Value("${gitlab.transport.requestTimeoutSeconds:60}")
+    private int transportRequestTimeoutSeconds;
+
+    @Value("${gitlab.responseCache.maxEntries:2000}")
+    private int responseCacheMaxEntries;
+
+    @Value("${gitlab.responseCache.maxMegabytes:64}")
+    private int responseCacheMaxMegabytes;
+
+    @Value("${gitlab.projects.pageSize:100}")
+    private int projectsPageSize;
+
+    @Value("${gitlab.graphql.enabled:false}")
+    private boolean graphqlEnabled;
+
+    @Value("${gitlab.graphql.batchSize:10}")
+    private int graphqlBatchSize;
+
+    @Value("${gitlab.graphql.url:}")
+    private String graphqlUrl;
+
+    @Value("${gitlab.stateFolderPath:state}")
+    private String stateFolderPath;
+
+    @Value("${gitlab.pipelineIndex.maxEntries:100000}")
+    private int pipelineIndexMaxEntries;
+
+    @Value("${gitlab.pipelineIndex.fallbackScanLimit:100}")
+    private int pipelineIndexFallbackScanLimit;
+
+    @Value("${gitlab.jobList.concurrency:8}")
+    private int jobListConcurrency;
+
+    @Value("${gitlab.jobList.refreshMinutes:10}")
+    private int jobListRefreshMinutes;
+
+    @Value("${gitlab.hooks.concurrency:8}")
+    private int hooksConcurrency;
+
+    @Value("${gitlab.hooks.retries:2}")
+    private int hooksRetries;
+
+    @Value("${gitlab.hooks.mode:project}")
+    private String hooksMode;
+
+    @Value("${gitlab.hooks.teardownSeconds:20}")
+    private int hooksTeardownSeconds;
+
+    @Value("${gitlab.hooks.keepOnShutdown:false}")
+    private boolean hooksKeepOnShutdown;
+
+    @Value("${gitlab.hooks.discoveryMinutes:2}")
+    private int hooksDiscoveryMinutes;
+
     @PostConstruct
     public void init() {
         List<Map.Entry<String, Supplier<String>>> mandatoryGetters = new ArrayList<>();
@@ -239,7 +341,143 @@ public class ConfigStructure {
         return mergeRequestHistoryFolderPath;
     }
 
+    public int getMergeRequestsBackfillConcurrency() {
+        return mergeRequestsBackfillConcurrency;
+    }
+
+    public int getMergeRequestsBatchSize() {
+        return mergeRequestsBatchSize;
+    }
+
+    public long getMergeRequestsBatchFlushMillis() {
+        return mergeRequestsBatchFlushMillis;
+    }
+
+    public long getMergeRequestsDebounceMillis() {
+        return mergeRequestsDebounceMillis;
+    }
+
     public String getGeneratedCoverageReportFilePathVariableName() {
         return generatedCoverageReportFilePathVariableName;
     }
+
+    public int getCommitDiffsPoolSize() {
+        return commitDiffsPoolSize;
+    }
+
+    public int getCommitDiffsPerEventConcurrency() {
+        return commitDiffsPerEventConcurrency;
+    }
+
+    public int getMaxCommitsPerEvent() {
+        return maxCommitsPerEvent;
+    }
+
+    public double getRateLimitRequestsPerSecond() {
+        return rateLimitRequestsPerSecond;
+    }
+
+    public double getRateLimitBackgroundShare() {
+        return rateLimitBackgroundShare;
+    }
+
+    public int getRateLimitMaxConcurrency() {
+        return rateLimitMaxConcurrency;
+    }
+
+    public int getRateLimitMaxRetries() {
+        return rateLimitMaxRetries;
+    }
+
+    public boolean isTransportHttp2() {
+        return transportHttp2;
+    }
+
+    public int getTransportConnectionPoolSize() {
+        return transportConnectionPoolSize;
+    }
+
+    public int getTransportMaxConnectionsPerHost() {
+        return transportMaxConnectionsPerHost;
+    }
+
+    public int getTransportKeepAliveSeconds() {
+        return transportKeepAliveSeconds;
+    }
+
+    public int getTransportConnectTimeoutSeconds() {
+        return transportConnectTimeoutSeconds;
+    }
+
+    public int getTransportRequestTimeoutSeconds() {
+        return transportRequestTimeoutSeconds;
+    }
+
+    public int getResponseCacheMaxEntries() {
+        return responseCacheMaxEntries;
+    }
+
+    public int getResponseCacheMaxMegabytes() {
+        return responseCacheMaxMegabytes;
+    }
+
+    public int getProjectsPageSize() {
+        return projectsPageSize;
+    }
+
+    public boolean isGraphqlEnabled() {
+        return graphqlEnabled;
+    }
+
+    public int getGraphqlBatchSize() {
+        return graphqlBatchSize;
+    }
+
+    public String getGraphqlUrl() {
+        return graphqlUrl;
+    }
+
+    public String getStateFolderPath() {
+        return stateFolderPath;
+    }
+
+    public int getPipelineIndexMaxEntries() {
+        return pipelineIndexMaxEntries;
+    }
+
+    public int getPipelineIndexFallbackScanLimit() {
+        return pipelineIndexFallbackScanLimit;
+    }
+
+    public int getJobListConcurrency() {
+        return jobListConcurrency;
+    }
+
+    public int getJobListRefreshMinutes() {
+        return jobListRefreshMinutes;
+    }
+
+    public int getHooksConcurrency() {
+        return hooksConcurrency;
+    }
+
+    public int getHooksRetries() {
+        return hooksRetries;
+    }
+
+    public String getHooksMode() {
+        return hooksMode;
+    }
+
+    public int getHooksTeardownSeconds() {
+        return hooksTeardownSeconds;
+    }
+
+    public boolean isHooksKeepOnShutdown() {
+        return hooksKeepOnShutdown;
+    }
+
+    public int getHooksDiscoveryMinutes() {
+        return hooksDiscoveryMinutes;
+    }
 }
@@ -38,8 +38,14 @@ import com.hp.octane.integrations.dto.pipelines.PipelineNode;
 import com.microfocus.octane.gitlab.app.ApplicationSettings;
 import com.microfocus.octane.gitlab.helpers.GitLabApiWrapper;
 import com.microfocus.octane.gitlab.helpers.HooksHelper;
+import com.microfocus.octane.gitlab.helpers.JobCiIdResolver;
+import com.microfocus.octane.gitlab.helpers.ManagedExecutors;
 import com.microfocus.octane.gitlab.helpers.ParsedPath;
 import com.microfocus.octane.gitlab.helpers.PathType;
+import com.microfocus.octane.gitlab.helpers.ProjectCache;
+import com.microfocus.octane.gitlab.helpers.ProjectEnricher;
+import com.microfocus.octane.gitlab.helpers.RequestPriority;
+import com.microfocus.octane.gitlab.helpers.StateStore;
 import com.microfocus.octane.gitlab.helpers.VariablesHelper;
 import com.microfocus.octane.gitlab.testresults.HooksUpdateRunnable;
 import com.microfocus.octane.gitlab.testresults.TestResultsCleanUpRunnable;
@@ -51,11 +57,10 @@ import org.apache.http.impl.client.HttpClients;
 import org.apache.http.util.EntityUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.gitlab4j.api.GitLabApi;
 import org.gitlab4j.api.GitLabApiException;
 import org.gitlab4j.api.models.AccessLevel;
+import org.gitlab4j.api.models.Permissions;
 import org.gitlab4j.api.models.Project;
-import org.gitlab4j.api.models.ProjectFilter;
 import org.gitlab4j.api.models.Variable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.ApplicationArguments;
@@ -69,34 +74,58 @@ import jakarta.annotation.PreDestroy;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Component
 @Scope("singleton")
 public class GitlabServices {
     private static final Logger                   log         = LogManager.getLogger(GitlabServices.class);
     private static final DTOFactory               dtoFactory  = DTOFactory.getInstance();
+    private static final long                     STRUCTURE_TIME_TO_LIVE = TimeUnit.SECONDS.toMillis(30);
     private final        ApplicationSettings      applicationSettings;
     private final        GitLabApiWrapper         gitLabApiWrapper;
-    private              GitLabApi                gitLabApi;
+    private final        ProjectEnricher          projectEnricher;
+    private final        StateStore               stateStore;
+    private final        ManagedExecutors         managedExecutors;
     private              boolean                  cleanupOnly = false;
     private              ScheduledExecutorService testCleanupExecutor;
     private              ScheduledFuture<?>       testCleanupScheduledFuture;
     private              ScheduledExecutorService updateHooksExecutor;
     private              ScheduledFuture<?>       updateHooksScheduledFuture;
+    private              HooksUpdateRunnable      hooksUpdateRunnable;
+    private              ScheduledExecutorService projectDiscoveryExecutor;
+    private              ExecutorService          jobListExecutor;
+    private              ScheduledExecutorService jobListRefreshExecutor;
+    private              long                     jobListRefreshMillis;
 
 
     private URL webhookURL;
+    private final Map<String, CachedStructure> structures = new ConcurrentHashMap<>();
+    private final Map<Boolean, JobListSnapshot> jobListSnapshots = new ConcurrentHashMap<>();
 
     @Autowired
     public GitlabServices(ApplicationSettings applicationSettings, GitLabApiWrapper gitLabApiWrapper,
+            ProjectEnricher projectEnricher, StateStore stateStore, ManagedExecutors managedExecutors,
             ApplicationArguments applicationArguments) {
         this.applicationSettings = applicationSettings;
         this.gitLabApiWrapper = gitLabApiWrapper;
+        this.projectEnricher = projectEnricher;
+        this.stateStore = stateStore;
+        this.managedExecutors = managedExecutors;
 
         if (applicationArguments.containsOption("cleanupOnly") &&
             (!applicationArguments.getOptionValues("cleanupOnly").isEmpty())) {
@@ -108,32 +137,53 @@ public class GitlabServices {
     private void init() throws MalformedURLException {
         //Adding webHooks
         initWebHookListenerURL();
-        gitLabApi = gitLabApiWrapper.getGitLabApi();
+        boolean sameWebhookURL = HooksHelper.loadRegistry(stateStore, webhookURL);
 
         try {
-            ProjectFilter filter = new ProjectFilter().withMembership(true).withMinAccessLevel(AccessLevel.MAINTAINER);
-
-            List<Project> projects = gitLabApi.getProjectApi().getProjects(filter);
-
             if (cleanupOnly) {
                 log.info("start with cleanup process");
-                HooksHelper.deleteWebHooks(projects, webhookURL, gitLabApi);
+                deleteWebHooks();
             } else {
+                if (!sameWebhookURL) {
+                    //hooks kept by an earlier run point to another URL
+                    log.info("The web hook URL changed, deleting the hooks created for the previous one");
+                    deleteWebHooks();
+                }
 
                 //start hooks' update thread
-                updateHooksExecutor = Executors.newSingleThreadScheduledExecutor();
+                hooksUpdateRunnable = new HooksUpdateRunnable(gitLabApiWrapper, webhookURL, stateStore,
+                        managedExecutors.io("hooksReconcile", applicationSettings.getConfig().getHooksConcurrency()),
+                        applicationSettings.getConfig().getHooksRetries(), applicationSettings.getConfig().getHooksMode());
+                updateHooksExecutor = managedExecutors.scheduler("hooksUpdate");
                 updateHooksScheduledFuture =
-                        updateHooksExecutor.scheduleAtFixedRate(new HooksUpdateRunnable(gitLabApiWrapper, webhookURL), 0,
+                        updateHooksExecutor.scheduleAtFixedRate(hooksUpdateRunnable, 0,
                                 HooksUpdateRunnable.INTERVAL, TimeUnit.MINUTES);
 
+                //new projects between the full scans
+                projectDiscoveryExecutor = managedExecutors.scheduler("projectDiscovery");
+                int discoveryMinutes = applicationSettings.getConfig().getHooksDiscoveryMinutes();
+                if (discoveryMinutes > 0) {
+                    projectDiscoveryExecutor.scheduleWithFixedDelay(hooksUpdateRunnable::discoverActiveProjects,
+                            discoveryMinutes, discoveryMinutes, TimeUnit.MINUTES);
+                }
+
             }
         } catch (GitLabApiException e) {
             log.warn("Failed to create GitLab web hooks", e);
             throw new RuntimeException(e);
         }
         if (!cleanupOnly) {
+            //job list: parallel enrichment and periodic refresh of the snapshots
+            jobListExecutor = managedExecutors.io("jobList", applicationSettings.getConfig().getJobListConcurrency());
+            jobListRefreshMillis = TimeUnit.MINUTES.toMillis(applicationSettings.getConfig().getJobListRefreshMinutes());
+            jobListRefreshExecutor = managedExecutors.scheduler("jobListRefresh");
+            if (jobListRefreshMillis > 0) {
+                jobListRefreshExecutor.execute(() -> getJobList(false));
+                jobListRefreshExecutor.scheduleWithFixedDelay(this::refreshJobLists, 1, 1, TimeUnit.MINUTES);
+            }
+
             //start test cleanUp thread
-            testCleanupExecutor = Executors.newSingleThreadScheduledExecutor();
+            testCleanupExecutor = managedExecutors.scheduler("testResultsCleanup");
             testCleanupScheduledFuture = testCleanupExecutor.scheduleAtFixedRate(
                     new TestResultsCleanUpRunnable(applicationSettings.getConfig().getTestResultsOutputFolderPath()),
                     TestResultsCleanUpRunnable.INTERVAL, TestResultsCleanUpRunnable.INTERVAL, TimeUnit.MINUTES);
@@ -155,12 +205,14 @@ public class GitlabServices {
             if (!cleanupOnly) {
                 stopExecutors();
 
-                log.info("Destroying GitLab webhooks ...");
-
-                ProjectFilter filter = new ProjectFilter().withMembership(true).withMinAccessLevel(AccessLevel.MAINTAINER);
-
-                List<Project> projects = gitLabApi.getProjectApi().getProjects(filter);
-                HooksHelper.deleteWebHooks(projects, webhookURL, gitLabApi);
+                if (applicationSettings.getConfig().isHooksKeepOnShutdown()) {
+                    //a restart with the same web hook URL continues with these hooks
+                    log.info("Keeping GitLab webhooks");
+                    HooksHelper.saveRegistry(stateStore, webhookURL);
+                } else {
+                    log.info("Destroying GitLab webhooks ...");
+                    deleteWebHooks();
+                }
             }
 
         } catch (Exception e) {
@@ -168,15 +220,74 @@ public class GitlabServices {
         }
     }
 
+    /**
+     * Deletes the hooks of the service with {@code gitlab.hooks.concurrency} requests in parallel, until the
+     * {@code gitlab.hooks.teardownSeconds} deadline. On shutdown only the hooks of the registry are deleted, without
+     * listing the hooks of every project; the cleanup mode also lists the hooks of all the projects and groups, to
+     * find hooks the registry does not know.
+     */
+    private void deleteWebHooks() throws GitLabApiException {
+        int teardownSeconds = applicationSettings.getConfig().getHooksTeardownSeconds();
+        long deadline = teardownSeconds > 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(teardownSeconds) : Long.MAX_VALUE;
+        ExecutorService teardownExecutor = managedExecutors.io("hooksTeardown", applicationSettings.getConfig().getHooksConcurrency());
+        try {
+            HooksHelper.deleteKnownWebHooks(gitLabApiWrapper, teardownExecutor, deadline);
+            if (cleanupOnly) {
+                gitLabApiWrapper.forEachProjectPage(GitLabApiWrapper.MAINTAINED_PROJECTS, projects -> {
+                    CompletableFuture<?>[] deletions = projects.stream().map(project -> CompletableFuture.runAsync(() -> {
+                        try {
+                            HooksHelper.deleteWebHooks(gitLabApiWrapper, webhookURL, project.getId());
+                        } catch (GitLabApiException e) {
+                            log.warn("Failed to delete GitLab web hooks", e);
+                        }
+                    }, teardownExecutor)).toArray(CompletableFuture[]::new);
+                    try {
+                        CompletableFuture.allOf(deletions).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    } catch (Exception e) {
+                        log.warn("The cleanup of the web hooks stopped: " + e);
+                        return false;
+                    }
+                    return System.currentTimeMillis() < deadline;
+                });
+            }
+            try {
+                if (cleanupOnly) {
+                    HooksHelper.deleteGroupWebHooks(gitLabApiWrapper, webhookURL);
+                }
+                HooksHelper.deleteSystemHook(gitLabApiWrapper, webhookURL);
+            } catch (GitLabApiException e) {
+                log.warn("Failed to delete the GitLab group and system hooks", e);
+            }
+        } finally {
+            teardownExecutor.shutdownNow();
+            //the hooks left are deleted by the next cleanup, or found again by the next hook update
+            HooksHelper.saveRegistry(stateStore, webhookURL);
+        }
+        //the hooks are gone, the next start has to create them for all the projects again
+        HooksUpdateRunnable.clearCheckpoint(stateStore);
+    }
+
     private void stopExecutors() {
         log.info("stop Executors");
 
         updateHooksScheduledFuture.cancel(true);
         updateHooksExecutor.shutdown();
+        projectDiscoveryExecutor.shutdownNow();
+        hooksUpdateRunnable.shutdown();
 
         testCleanupScheduledFuture.cancel(true);
         testCleanupExecutor.shutdown();
 
+        jobListRefreshExecutor.shutdownNow();
+        jobListExecutor.shutdownNow();
+
+    }
+
+    /**
+     * The progress of the hook update, empty when the service only cleans up.
+     */
+    public Map<String, Object> getHooksUpdateMetrics() {
+        return hooksUpdateRunnable != null ? hooksUpdateRunnable.getMetrics() : new HashMap<>();
     }
 
     @EventListener(ApplicationReadyEvent.class)
@@ -217,54 +328,186 @@ public class GitlabServices {
         }
     }
 
+    /**
+     * The job list is served from a snapshot, refreshed in the background when it is older than
+     * {@code gitlab.jobList.refreshMinutes} and updated incrementally by the project events.
+     * Only the first request for a snapshot waits for it to be built.
+     */
     CIJobsList getJobList(boolean includeParameters) {
-        CIJobsList ciJobsList = dtoFactory.newDTO(CIJobsList.class);
-        List<PipelineNode> list = new ArrayList<>();
-        StringBuilder projectNames = new StringBuilder();
-        try {
-            ProjectFilter filter = new ProjectFilter();
-            filter.withMembership(true).withMinAccessLevel(AccessLevel.MAINTAINER);
-            List<Project> projectsFilters = gitLabApi.getProjectApi().getProjects(filter);
-            log.info("There are only " +
-                     projectsFilters.size() +
-                     " projects with access level => MAINTAINER for the integrated user");
-
+        if (jobListRefreshMillis <= 0) {
+            return toJobsList(RequestPriority.BACKGROUND.supply(() -> loadJobList(includeParameters)));
+        }
+        JobListSnapshot snapshot = jobListSnapshots.computeIfAbsent(includeParameters, key -> new JobListSnapshot());
+        if (snapshot.jobs == null) {
+            synchronized (snapshot) {
+                if (snapshot.jobs == null) {
+                    refreshJobList(snapshot, includeParameters);
+                }
+            }
+        } else if (System.currentTimeMillis() - snapshot.refreshedAt > jobListRefreshMillis) {
+            refreshJobListAsync(snapshot, includeParameters);
+        }
+        return toJobsList(snapshot.jobs);
+    }
 
-            for (Project project : projectsFilters) {
+    private void refreshJobListAsync(JobListSnapshot snapshot, boolean includeParameters) {
+        if (snapshot.refreshing.compareAndSet(false, true)) {
+            jobListRefreshExecutor.execute(() -> {
                 try {
-                    ParsedPath parseProject = new ParsedPath(project, gitLabApi);
-                    PipelineNode buildConf;
+                    refreshJobList(snapshot, includeParameters);
+                } finally {
+                    snapshot.refreshing.set(false);
+                }
+            });
+        }
+    }
+
+    private void refreshJobList(JobListSnapshot snapshot, boolean includeParameters) {
+        long start = System.currentTimeMillis();
+        snapshot.startRefresh();
+        snapshot.publish(RequestPriority.BACKGROUND.supply(() -> loadJobList(includeParameters)));
+        log.info("Job list" + (includeParameters ? " with parameters" : "") + " refreshed in " +
+                 (snapshot.refreshedAt - start) + " ms");
+    }
 
-                    buildConf = dtoFactory.newDTO(PipelineNode.class).setJobCiId(parseProject.getJobCiId(true))
-                            .setName(project.getNameWithNamespace()).setDefaultBranchName(project.getDefaultBranch())
-                            .setMultiBranchType(MultiBranchType.MULTI_BRANCH_PARENT);
+    private void refreshJobLists() {
+        jobListSnapshots.forEach((includeParameters, snapshot) -> {
+            if (snapshot.jobs != null && System.currentTimeMillis() - snapshot.refreshedAt > jobListRefreshMillis) {
+                refreshJobListAsync(snapshot, includeParameters);
+            }
+        });
+    }
 
+    private Map<Long, PipelineNode> loadJobList(boolean includeParameters) {
+        Map<Long, PipelineNode> jobs = new ConcurrentSkipListMap<>();
+        List<CompletableFuture<Void>> pendingJobs = new ArrayList<>();
+        try {
+            long projectCount = gitLabApiWrapper.forEachProjectPage(GitLabApiWrapper.MAINTAINED_PROJECTS, projects -> {
+                if (includeParameters) {
+                    projectEnricher.enrich(projects);
+                }
+                for (Project project : projects) {
+                    ProjectCache.put(project);
                     if (includeParameters) {
-                        buildConf.setParameters(getParameters(parseProject));
+                        //reading the variables takes requests, the projects are handled in parallel
+                        pendingJobs.add(CompletableFuture.runAsync(() -> RequestPriority.BACKGROUND.run(
+                                () -> addJob(jobs, project, true)), jobListExecutor));
+                    } else {
+                        addJob(jobs, project, false);
                     }
-                    projectNames.append(buildConf.getName()).append(",");
-                    list.add(buildConf);
-                } catch (Exception e) {
-                    log.warn("Failed to add some tags to the job list", e);
                 }
-            }
+                return true;
+            });
+            CompletableFuture.allOf(pendingJobs.toArray(new CompletableFuture[0])).join();
+            log.info("There are only " +
+                     projectCount +
+                     " projects with access level => MAINTAINER for the integrated user");
 
         } catch (Exception e) {
             log.warn("Failed to add some jobs to the job list", e);
         }
 
-        log.info("getJobList results:" + projectNames);
-        ciJobsList.setJobs(list.toArray(new PipelineNode[0]));
+        log.info("getJobList results:" + jobs.values().stream().map(PipelineNode::getName).collect(Collectors.joining(",")));
+        return jobs;
+    }
+
+    private void addJob(Map<Long, PipelineNode> jobs, Project project, boolean includeParameters) {
+        PipelineNode job = toJob(project, includeParameters);
+        if (job != null) {
+            jobs.put(project.getId(), job);
+        }
+    }
+
+    private PipelineNode toJob(Project project, boolean includeParameters) {
+        try {
+            ParsedPath parseProject = new ParsedPath(project, gitLabApiWrapper);
+            String jobCiId = parseProject.getJobCiId(true);
+            JobCiIdResolver.register(jobCiId, project.getId(), project.getPathWithNamespace(), null, null);
+            PipelineNode buildConf = dtoFactory.newDTO(PipelineNode.class).setJobCiId(jobCiId)
+                    .setName(project.getNameWithNamespace()).setDefaultBranchName(project.getDefaultBranch())
+                    .setMultiBranchType(MultiBranchType.MULTI_BRANCH_PARENT);
+
+            if (includeParameters) {
+                buildConf.setParameters(getParameters(parseProject));
+            }
+            return buildConf;
+        } catch (Exception e) {
+            log.warn("Failed to add some tags to the job list", e);
+            return null;
+        }
+    }
+
+    private static CIJobsList toJobsList(Map<Long, PipelineNode> jobs) {
+        CIJobsList ciJobsList = dtoFactory.newDTO(CIJobsList.class);
+        ciJobsList.setJobs(jobs.values().toArray(new PipelineNode[0]));
         return ciJobsList;
     }
 
+    /**
+     * Updates the job list snapshots after a project was created or changed (name, path, default branch, members).
+     */
+    public void onProjectChanged(long projectId) {
+        ProjectCache.invalidate(projectId);
+        Project project;
+        try {
+            project = ProjectCache.getProject(gitLabApiWrapper, projectId);
+        } catch (GitLabApiException e) {
+            if (e.getHttpStatus() == HttpStatus.SC_NOT_FOUND) {
+                onProjectRemoved(projectId);
+            } else {
+                log.warn("Failed to update project " + projectId + " in the job list", e);
+            }
+            return;
+        }
+        boolean maintained = isMaintained(project);
+        if (maintained && hooksUpdateRunnable != null) {
+            //a new project, or a project the integration user got access to, is hooked right away
+            hooksUpdateRunnable.reconcileProjectAsync(project);
+        }
+        jobListSnapshots.forEach((includeParameters, snapshot) -> {
+            if (!maintained) {
+                snapshot.apply(projectId, null);
+                return;
+            }
+            PipelineNode job = toJob(project, includeParameters);
+            if (job != null) {
+                snapshot.apply(projectId, job);
+            }
+        });
+    }
+
+    /**
+     * A user was added to a group: when it is the integration user, the projects of the group are hooked.
+     */
+    public void onGroupMemberAdded(long groupId, long userId) {
+        if (hooksUpdateRunnable != null) {
+            projectDiscoveryExecutor.execute(() -> hooksUpdateRunnable.discoverGroupProjects(groupId, userId));
+        }
+    }
+
+    public void onProjectRemoved(long projectId) {
+        ProjectCache.invalidate(projectId);
+        jobListSnapshots.values().forEach(snapshot -> snapshot.apply(projectId, null));
+    }
+
+    private static boolean isMaintained(Project project) {
+        Permissions permissions = project.getPermissions();
+        if (permissions == null) {
+            return false;
+        }
+        return Stream.of(permissions.getProjectAccess(), permissions.getGroupAccess())
+                .filter(Objects::nonNull)
+                .anyMatch(access -> access.getAccessLevel() != null &&
+                                    access.getAccessLevel().value >= AccessLevel.MAINTAINER.value);
+    }
+
     /*private Boolean isCurrentUserAdmin() throws GitLabApiException {
         return gitLabApi.getUserApi().getCurrentUser().getIsAdmin() != null && gitLabApi.getUserApi().getCurrentUser().getIsAdmin();
     }*/
 
     public List<CIParameter> getParameters(ParsedPath project) {
         List<CIParameter> parametersList = new ArrayList<>();
-        List<Variable> projectVariables = VariablesHelper.getVariables(project, gitLabApi, applicationSettings.getConfig());
+        List<Variable> projectVariables = VariablesHelper.getVariables(project, gitLabApiWrapper, applicationSettings.getConfig());
 
         projectVariables.forEach(var -> {
             CIParameter param = dtoFactory.newDTO(CIParameter.class);
@@ -277,12 +520,38 @@ public class GitlabServices {
         return parametersList;
     }
 
+    /**
+     * The structure of a job, kept for a short time: a test run asks for it several times in a row (test framework,
+     * custom pattern, branch), and building it reads the project and its variables and re-creates the webhook.
+     */
     PipelineNode createStructure(String buildId, boolean isMultiBranchParent) {
+        String key = (isMultiBranchParent ? "parent:" : "child:") + buildId;
+        long now = System.currentTimeMillis();
+        CachedStructure cached = structures.get(key);
+        if (cached != null && cached.expiresAt() > now) {
+            return cached.structure();
+        }
+
+        PipelineNode structure = buildStructure(buildId, isMultiBranchParent);
+        if (structure != null) {
+            structures.values().removeIf(entry -> entry.expiresAt() <= now);
+            structures.put(key, new CachedStructure(structure, now + STRUCTURE_TIME_TO_LIVE));
+        }
+        return structure;
+    }
+
+    private PipelineNode buildStructure(String buildId, boolean isMultiBranchParent) {
 
-        ParsedPath project = new ParsedPath(buildId, gitLabApi, isMultiBranchParent ? PathType.MULTI_BRUNCH : PathType.PIPELINE);
+        ParsedPath project = JobCiIdResolver.parse(buildId, gitLabApiWrapper, isMultiBranchParent ? PathType.MULTI_BRUNCH : PathType.PIPELINE);
         try {
-            Project currentProject = gitLabApi.getProjectApi().getProject(project.getFullPathOfProject());
-            HooksHelper.addWebHookToProject(gitLabApi, webhookURL, project.getFullPathOfProject(), true);
+            Project currentProject = ProjectCache.getProject(gitLabApiWrapper, project.getPathWithNameSpace());
+            String branch = isMultiBranchParent ? null : project.getCurrentBranchOrDefault();
+            JobCiIdResolver.register(buildId, currentProject.getId(), currentProject.getPathWithNamespace(), branch, null);
+            JobCiIdResolver.register(project.getJobCiId(isMultiBranchParent), currentProject.getId(),
+                    currentProject.getPathWithNamespace(), branch, null);
+            if (!HooksHelper.isCoveredByGroupHook(currentProject)) {
+                HooksHelper.reconcileWebHook(gitLabApiWrapper, webhookURL, project.getFullPathOfProject());
+            }
             return dtoFactory.newDTO(PipelineNode.class).setJobCiId(project.getJobCiId(isMultiBranchParent))
                     .setDefaultBranchName(currentProject.getDefaultBranch()).setMultiBranchType(
                             isMultiBranchParent ? MultiBranchType.MULTI_BRANCH_PARENT : MultiBranchType.MULTI_BRANCH_CHILD)
@@ -301,4 +570,50 @@ public class GitlabServices {
         return cleanupOnly;
     }
 
+    private record CachedStructure(PipelineNode structure, long expiresAt) {
+    }
+
+    private static final class JobListSnapshot {
+        private volatile Map<Long, PipelineNode> jobs;
+        private volatile long refreshedAt;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private final Object changesLock = new Object();
+        //the project changes seen while the list is rebuilt, replayed on the new list before it is published
+        private Map<Long, Optional<PipelineNode>> changesDuringRefresh;
+
+        private void startRefresh() {
+            synchronized (changesLock) {
+                changesDuringRefresh = new HashMap<>();
+            }
+        }
+
+        private void publish(Map<Long, PipelineNode> refreshed) {
+            synchronized (changesLock) {
+                changesDuringRefresh.forEach((projectId, job) -> job.ifPresentOrElse(
+                        value -> refreshed.put(projectId, value), () -> refreshed.remove(projectId)));
+                changesDuringRefresh = null;
+                jobs = refreshed;
+                refreshedAt = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * Adds or replaces the job of a project, or removes it when the job is null.
+         */
+        private void apply(long projectId, PipelineNode job) {
+            synchronized (changesLock) {
+                if (jobs != null) {
+                    if (job != null) {
+                        jobs.put(projectId, job);
+                    } else {
+                        jobs.remove(projectId);
+                    }
+                }
+                if (changesDuringRefresh != null) {
+                    changesDuringRefresh.put(projectId, Optional.ofNullable(job));
+                }
+            }
+        }
+    }
+
 }
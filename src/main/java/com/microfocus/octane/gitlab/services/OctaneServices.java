@@ -29,6 +29,7 @@
 
 package com.microfocus.octane.gitlab.services;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.hp.octane.integrations.CIPluginServices;
 import com.hp.octane.integrations.OctaneConfiguration;
 import com.hp.octane.integrations.dto.DTOFactory;
@@ -59,7 +60,6 @@ import com.microfocus.octane.gitlab.helpers.TestResultsHelper;
 import org.apache.http.HttpStatus;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.gitlab4j.api.GitLabApi;
 import org.gitlab4j.api.GitLabApiException;
 import org.gitlab4j.api.models.Job;
 import org.gitlab4j.api.models.Pipeline;
@@ -72,7 +72,10 @@ import java.io.*;
 import java.net.URL;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static com.microfocus.octane.gitlab.helpers.PasswordEncryption.PREFIX;
 
@@ -81,13 +84,16 @@ import static com.microfocus.octane.gitlab.helpers.PasswordEncryption.PREFIX;
 public class OctaneServices extends CIPluginServices {
     private static final Logger log = LogManager.getLogger(OctaneServices.class);
     private static final DTOFactory dtoFactory = DTOFactory.getInstance();
+    private static final TypeReference<List<Pipeline>> PIPELINES = new TypeReference<>() {};
+    private static final TypeReference<List<Variable>> PIPELINE_VARIABLES = new TypeReference<>() {};
 
     private static GitLabApiWrapper gitLabApiWrapper;
     private static ApplicationSettings applicationSettings;
     private static GitlabServices gitlabServices;
+    private static PipelineParameterIndex pipelineParameterIndex;
+    private static RefCatalog refCatalog;
 
     //    private final Transformer nunitTransformer = TransformerFactory.newInstance().newTransformer(new StreamSource(this.getClass().getClassLoader().getResourceAsStream("hudson/plugins/nunit/" + NUNIT_TO_JUNIT_XSLFILE_STR)));
-    private static GitLabApi gitLabApi;
     private final String RUNNING_STATUS = "running";
     private final String PENDING_STATUS = "pending";
     private final String TESTS_TO_RUN_PARAM_NAME = "testsToRun";
@@ -95,6 +101,7 @@ public class OctaneServices extends CIPluginServices {
     private final String TEST_RUNNER_FRAMEWORK_PARAM_NAME = "testRunnerFramework";
     private final String TEST_RUNNER_CUSTOM_PATTERN = "testRunnerCustomPattern";
     private final long NO_SUCH_PIPELINE = -1;
+    private static final long STALE_PIPELINE_STATUS_MILLIS = TimeUnit.MINUTES.toMillis(1);
 
     @Override
     public CIServerInfo getServerInfo() {
@@ -207,10 +214,14 @@ public class OctaneServices extends CIPluginServices {
     }
 
     private boolean checkIfMultiBranchParentId(String rootJobCiId) {
+        Optional<JobCiIdResolver.JobIdentity> identity = JobCiIdResolver.resolve(rootJobCiId);
+        if (identity.isPresent()) {
+            return identity.get().isMultiBranchParent();
+        }
 
         try {
-            ParsedPath parsedPath = new ParsedPath(rootJobCiId, gitLabApi, PathType.MULTI_BRUNCH);
-            gitLabApi.getProjectApi().getProject(parsedPath.getFullPathOfProject());
+            ParsedPath parsedPath = new ParsedPath(rootJobCiId, gitLabApiWrapper, PathType.MULTI_BRUNCH);
+            ProjectCache.getProject(gitLabApiWrapper, parsedPath.getFullPathOfProject());
         } catch (GitLabApiException e) {
             if (e.getHttpStatus() == HttpStatus.SC_NOT_FOUND) {
                 return false;
@@ -261,12 +272,19 @@ public class OctaneServices extends CIPluginServices {
             });
 
             jobCiId = jobCiIdBuilder.toString();
-            ParsedPath parsedPath = new ParsedPath(jobCiId, gitLabApi, PathType.PIPELINE);
+            ParsedPath parsedPath = JobCiIdResolver.parse(jobCiId, gitLabApiWrapper, PathType.PIPELINE);
 
-            gitLabApi.getPipelineApi().createPipeline(
+            Pipeline pipeline = gitLabApiWrapper.executeWrite(api -> api.getPipelineApi().createPipeline(
                     parsedPath.getPathWithNameSpace(),
                     parsedPath.getCurrentBranchOrDefault(),
-                    VariablesHelper.convertParametersToVariables(ciParameters));
+                    VariablesHelper.convertParametersToVariables(ciParameters)));
+
+            //index the execution id right away, so the execution can be stopped before the first webhook event arrives
+            ciParameters.getParameters().stream()
+                    .filter(parameter -> PipelineParameterIndex.INDEXED_PARAMETER.equals(parameter.getName()) &&
+                                         parameter.getValue() != null)
+                    .forEach(parameter -> indexPipeline(parsedPath.getPathWithNameSpace(), parameter.getName(),
+                            parameter.getValue().toString(), pipeline));
 
         } catch (GitLabApiException e) {
             log.error("Failed to start a pipeline", e);
@@ -277,11 +295,12 @@ public class OctaneServices extends CIPluginServices {
     private List<CIParameter> getCiParamsWithTestsToRun(String jobCiId, List<CIParameter> parameters, String testsToRun) {
         List<CIParameter> resultedParams = new ArrayList<>();
 
-        Optional<String> frameworkParam = getPipeline(jobCiId).getParameters().stream()
+        List<CIParameter> pipelineParameters = getPipeline(jobCiId).getParameters();
+        Optional<String> frameworkParam = pipelineParameters.stream()
                 .filter(param -> param.getName().equalsIgnoreCase(TEST_RUNNER_FRAMEWORK_PARAM_NAME))
                 .map(this::getStringValueFromParam).findFirst();
 
-        Optional<String> customFormat = getPipeline(jobCiId).getParameters().stream()
+        Optional<String> customFormat = pipelineParameters.stream()
                 .filter(param -> param.getName().equalsIgnoreCase(TEST_RUNNER_CUSTOM_PATTERN))
                 .map(this::getStringValueFromParam).findFirst();
 
@@ -340,19 +359,19 @@ public class OctaneServices extends CIPluginServices {
 
     @Override
     public CIBranchesList getBranchesList(String jobCiId, String filterBranchName) {
-        ParsedPath parsedPath = new ParsedPath(jobCiId, gitLabApi, PathType.PIPELINE);
+        ParsedPath parsedPath = JobCiIdResolver.parse(jobCiId, gitLabApiWrapper, PathType.PIPELINE);
 
         try {
             String path = parsedPath.getPathWithNameSpace();
 
-            List<Branch> result = gitLabApi.getRepositoryApi().getBranches(path, filterBranchName).stream()
-                    .map(branch -> dtoFactory.newDTO(Branch.class).setName(branch.getName())
-                            .setInternalId(ParsedPath.convertBranchName(branch.getName()))).collect(Collectors.toList());
+            List<Branch> result = refCatalog.findBranches(path, filterBranchName).stream()
+                    .map(branch -> dtoFactory.newDTO(Branch.class).setName(branch)
+                            .setInternalId(ParsedPath.convertBranchName(branch))).collect(Collectors.toList());
 
-            List<Branch> tags = gitLabApi.getTagsApi().getTags(path, null, null, filterBranchName)
+            List<Branch> tags = refCatalog.findTags(path, filterBranchName)
                     .stream().map(tag -> dtoFactory.newDTO(Branch.class)
-                            .setName(tag.getName())
-                            .setInternalId(ParsedPath.convertBranchName(tag.getName())))
+                            .setName(tag)
+                            .setInternalId(ParsedPath.convertBranchName(tag)))
                     .collect(Collectors.toList());
             result.addAll(tags);
 
@@ -367,7 +386,7 @@ public class OctaneServices extends CIPluginServices {
 
     private Optional<Job> extractGitLabJob (ParsedPath project, String buildNumber){
         try {
-            return Optional.of(gitLabApi.getJobApi().getJob(project.getPathWithNameSpace(), Long.parseLong(buildNumber)));
+            return Optional.of(gitLabApiWrapper.execute(api -> api.getJobApi().getJob(project.getPathWithNameSpace(), Long.parseLong(buildNumber))));
         } catch (GitLabApiException e){
             log.debug(e.getMessage(), e);
             return Optional.empty();
@@ -379,17 +398,25 @@ public class OctaneServices extends CIPluginServices {
     public InputStream getTestsResult(String jobFullName, String buildNumber) {
         TestsResult result = dtoFactory.newDTO(TestsResult.class);
         try {
-            ParsedPath project = new ParsedPath(ParsedPath.cutLastPartOfPath(jobFullName), gitLabApi, PathType.PROJECT);
+            //the project of a job id is known when the id was generated by the service, otherwise it is probed
+            Optional<JobCiIdResolver.JobIdentity> identity = JobCiIdResolver.resolve(jobFullName);
+            ParsedPath project = identity.isPresent()
+                    ? new ParsedPath(identity.get().pathWithNamespace(), identity.get().projectId(), null, gitLabApiWrapper)
+                    : new ParsedPath(ParsedPath.cutLastPartOfPath(jobFullName), gitLabApiWrapper, PathType.PROJECT);
             ParsedPath cutProject = null;
 
             Optional<Job> optionalJob = extractGitLabJob(project, buildNumber);
+            if (optionalJob.isEmpty() && identity.isPresent()) {
+                project = new ParsedPath(ParsedPath.cutLastPartOfPath(jobFullName), gitLabApiWrapper, PathType.PROJECT);
+                optionalJob = extractGitLabJob(project, buildNumber);
+            }
             if (optionalJob.isEmpty()) {
-                cutProject = new ParsedPath(ParsedPath.cutLastPartOfPath(project.getPathWithNameSpace()), gitLabApi, PathType.PROJECT);
+                cutProject = new ParsedPath(ParsedPath.cutLastPartOfPath(project.getPathWithNameSpace()), gitLabApiWrapper, PathType.PROJECT);
             }
 
             while (optionalJob.isEmpty() && !project.getFullPathOfProject().equals(cutProject.getFullPathOfProject())) {
                 cutProject = project;
-                project = new ParsedPath(ParsedPath.cutLastPartOfPath(project.getPathWithNameSpace()), gitLabApi, PathType.PROJECT);
+                project = new ParsedPath(ParsedPath.cutLastPartOfPath(project.getPathWithNameSpace()), gitLabApiWrapper, PathType.PROJECT);
                 optionalJob = extractGitLabJob(project, buildNumber);
             }
 
@@ -423,7 +450,8 @@ public class OctaneServices extends CIPluginServices {
             result = result.setBuildContext(buildContext);
 
             JunitTestResultsProvider junitTestResultsProvider = JunitTestResultsProvider.getInstance(applicationSettings);
-            InputStream artifactFiles = gitLabApi.getJobApi().downloadArtifactsFile(project.getId(), job.getId());
+            long projectId = project.getId();
+            InputStream artifactFiles = gitLabApiWrapper.execute(api -> api.getJobApi().downloadArtifactsFile(projectId, job.getId()));
 
             List<TestRun> tests = junitTestResultsProvider.createAndGetTestList(
                     artifactFiles);
@@ -449,10 +477,19 @@ public class OctaneServices extends CIPluginServices {
         OctaneServices.gitlabServices = gitlabServices;
     }
 
+    @Autowired
+    public void setPipelineParameterIndex(PipelineParameterIndex pipelineParameterIndex) {
+        OctaneServices.pipelineParameterIndex = pipelineParameterIndex;
+    }
+
+    @Autowired
+    public void setRefCatalog(RefCatalog refCatalog) {
+        OctaneServices.refCatalog = refCatalog;
+    }
+
     @Autowired
     public void setGitLabApi(GitLabApiWrapper gitLabApiWrapper) {
         OctaneServices.gitLabApiWrapper = gitLabApiWrapper;
-        gitLabApi = gitLabApiWrapper.getGitLabApi();
     }
 
     public GitLabApiWrapper getGitLabApiWrapper() {
@@ -466,21 +503,28 @@ public class OctaneServices extends CIPluginServices {
     @Override
     public void stopPipelineRun(String jobId, CIParameters ciParameters) {
         try {
-            ParsedPath parsedPath = new ParsedPath(jobId, gitLabApi, PathType.PIPELINE);
-
-            List<Pipeline> pipelines = gitLabApi.getPipelineApi()
-                    .getPipelines(parsedPath.getPathWithNameSpace());
+            ParsedPath parsedPath = JobCiIdResolver.parse(jobId, gitLabApiWrapper, PathType.PIPELINE);
+            String projectPath = parsedPath.getPathWithNameSpace();
 
             CIParameter octaneExecutionId = ciParameters.getParameters().stream()
                     .filter(parameter -> parameter.getName().equals(SdkConstants.JobParameters.OCTANE_AUTO_ACTION_EXECUTION_ID_PARAMETER_NAME))
                     .findAny().orElse(null);
 
             if (octaneExecutionId != null) {
-                long pipelineIdWithParameter = getIdWhereParameter(parsedPath.getPathWithNameSpace(),
-                        pipelines, octaneExecutionId);
+                String executionId = octaneExecutionId.getValue().toString();
+                long pipelineIdWithParameter = pipelineParameterIndex.find(projectPath, octaneExecutionId.getName(), executionId)
+                        .map(PipelineParameterIndex.IndexedPipeline::pipelineId)
+                        .orElse(NO_SUCH_PIPELINE);
+                if (pipelineIdWithParameter == NO_SUCH_PIPELINE) {
+                    pipelineIdWithParameter = getIdWhereParameter(projectPath, octaneExecutionId.getName(), executionId);
+                }
+                if (pipelineIdWithParameter == NO_SUCH_PIPELINE) {
+                    log.warn("No running or pending pipeline of " + projectPath + " was started with the execution id " + executionId);
+                    return;
+                }
 
-                gitLabApi.getPipelineApi().cancelPipelineJobs(parsedPath.getPathWithNameSpace(),
-                        pipelineIdWithParameter);
+                long pipelineId = pipelineIdWithParameter;
+                gitLabApiWrapper.executeWrite(api -> api.getPipelineApi().cancelPipelineJobs(projectPath, pipelineId));
             }
         } catch (GitLabApiException e) {
             log.error("Failed to stop the pipeline run", e);
@@ -490,30 +534,23 @@ public class OctaneServices extends CIPluginServices {
 
     @Override
     public CIBuildStatusInfo getJobBuildStatus(String jobCiId, String parameterName, String parameterValue) {
-        ParsedPath parsedPath = new ParsedPath(jobCiId, gitLabApi, PathType.PIPELINE);
+        ParsedPath parsedPath = JobCiIdResolver.parse(jobCiId, gitLabApiWrapper, PathType.PIPELINE);
+        String projectPath = parsedPath.getPathWithNameSpace();
         try {
-            List<Pipeline> pipelines = gitLabApi.getPipelineApi()
-                    .getPipelines(parsedPath.getPathWithNameSpace());
-
-            Optional<Pipeline> chosenPipeline = pipelines.stream().map(pipeline -> {
-                try {
-                    List<Variable> pipelineVariables = gitLabApi.getPipelineApi()
-                            .getPipelineVariables(parsedPath.getPathWithNameSpace(), pipeline.getId());
-
-                    for (Variable variable : pipelineVariables) {
-                        if (variable.getKey().equals(parameterName) && variable.getValue().equals(parameterValue)) {
-                            return pipeline;
-                        }
-                    }
-                    return null;
-                } catch (GitLabApiException e) {
-                    log.error("Failed to get variables from pipeline", e);
-                    throw new RuntimeException(e);
-                }
-            }).filter(Objects::nonNull).findAny();
+            Optional<PipelineParameterIndex.IndexedPipeline> chosenPipeline =
+                    pipelineParameterIndex.find(projectPath, parameterName, parameterValue);
+            if (chosenPipeline.isEmpty()) {
+                chosenPipeline = scanPipelines(projectPath, parameterName, parameterValue);
+            } else if (!chosenPipeline.get().isFinished() &&
+                       System.currentTimeMillis() - chosenPipeline.get().updatedAt() > STALE_PIPELINE_STATUS_MILLIS) {
+                //no event was received for a while, the webhook may be missing: read the current status once
+                long pipelineId = chosenPipeline.get().pipelineId();
+                Pipeline pipeline = gitLabApiWrapper.execute(api -> api.getPipelineApi().getPipeline(projectPath, pipelineId));
+                chosenPipeline = Optional.of(indexPipeline(projectPath, parameterName, parameterValue, pipeline));
+            }
 
             if (chosenPipeline.isPresent()) {
-                String status = chosenPipeline.get().getStatus().toValue();
+                String status = chosenPipeline.get().status();
                 CIBuildStatus currentCIBuildStatus = getCIBuildStatus(status);
                 Optional<CIBuildStatus> buildStatus = Arrays.stream(CIBuildStatus.values())
                         .filter(ciBuildStatus -> Objects.equals(ciBuildStatus, currentCIBuildStatus))
@@ -523,9 +560,9 @@ public class OctaneServices extends CIPluginServices {
                     throw new RuntimeException("Failed to get the correct build status");
                 }
                 return dtoFactory.newDTO(CIBuildStatusInfo.class)
-                        .setJobCiId(ParsedPath.PIPELINE_JOB_CI_ID_PREFIX + parsedPath.getPathWithNameSpace() + "/" + ParsedPath.convertBranchName(chosenPipeline.get().getRef()))
+                        .setJobCiId(ParsedPath.PIPELINE_JOB_CI_ID_PREFIX + projectPath + "/" + ParsedPath.convertBranchName(chosenPipeline.get().ref()))
                         .setBuildStatus(buildStatus.get())
-                        .setBuildCiId(getBuildCiId(chosenPipeline.get()))
+                        .setBuildCiId(String.valueOf(chosenPipeline.get().pipelineId()))
                         .setParamName(parameterName)
                         .setParamValue(parameterValue)
                         .setResult(getCiBuildResult(status));
@@ -537,33 +574,80 @@ public class OctaneServices extends CIPluginServices {
         }
     }
 
-    private long getIdWhereParameter(String cleanedPath, List<Pipeline> pipelines, CIParameter executionId) {
-        pipelines = pipelines.stream()
-                .filter(this::pipelineInQueue)
-                .collect(Collectors.toList());
-
-        return pipelines.stream().map(pipeline -> {
-                    List<Variable> pipelineVariables = null;
-                    try {
-                        pipelineVariables = gitLabApi.getPipelineApi()
-                                .getPipelineVariables(cleanedPath, pipeline.getId());
-
-                        for (Variable variable : pipelineVariables) {
-                            if (variable.getValue().equals(executionId.getValue().toString())) {
-                                return pipeline.getId();
-                            }
-                        }
-                    } catch (GitLabApiException e) {
-                        log.error("Failed to get parameters of the pipeline", e);
+    /**
+     * Fallback for the pipelines that are not in the index (started before the service, or while the webhook was
+     * missing): looks for the parameter in the variables of the latest pipelines of the project only.
+     */
+    private Optional<PipelineParameterIndex.IndexedPipeline> scanPipelines(String projectPath, String parameterName,
+                                                                          String parameterValue) throws GitLabApiException {
+        int limit = Math.max(1, applicationSettings.getConfig().getPipelineIndexFallbackScanLimit());
+        int perPage = Math.min(100, limit);
+        int scanned = 0;
+        for (int page = 1; scanned < limit; page++) {
+            int currentPage = page;
+            List<Pipeline> pipelines = gitLabApiWrapper.execute(api -> api.getPipelineApi()
+                    .getPipelines(projectPath, currentPage, perPage));
+            for (Pipeline pipeline : pipelines) {
+                if (scanned++ >= limit) {
+                    break;
+                }
+                List<Variable> pipelineVariables = gitLabApiWrapper.execute(api -> api.getPipelineApi()
+                        .getPipelineVariables(projectPath, pipeline.getId()));
+                for (Variable variable : pipelineVariables) {
+                    if (variable.getKey().equals(parameterName) && variable.getValue().equals(parameterValue)) {
+                        return Optional.of(indexPipeline(projectPath, parameterName, parameterValue, pipeline));
                     }
-                    return NO_SUCH_PIPELINE;
-                }).filter(integer -> !Objects.equals(integer, NO_SUCH_PIPELINE))
-                .findAny().orElse(NO_SUCH_PIPELINE);
+                }
+            }
+            if (pipelines.size() < perPage) {
+                break;
+            }
+        }
+        log.warn("No pipeline with " + parameterName + "=" + parameterValue + " found in the latest " + scanned +
+                 " pipelines of " + projectPath);
+        return Optional.empty();
     }
 
-    private boolean pipelineInQueue(Pipeline pipeline) {
-        return pipeline.getStatus().toString().equals(RUNNING_STATUS)
-                || pipeline.getStatus().toString().equals(PENDING_STATUS);
+    private PipelineParameterIndex.IndexedPipeline indexPipeline(String projectPath, String parameterName,
+                                                                 String parameterValue, Pipeline pipeline) {
+        PipelineParameterIndex.IndexedPipeline indexed = new PipelineParameterIndex.IndexedPipeline(pipeline.getId(),
+                pipeline.getRef(), pipeline.getStatus() != null ? pipeline.getStatus().toValue() : PENDING_STATUS,
+                System.currentTimeMillis());
+        pipelineParameterIndex.put(projectPath, parameterName, parameterValue, indexed);
+        return indexed;
+    }
+
+    /**
+     * Fallback for the executions that are not in the index: looks for the execution id in the variables of the
+     * running and pending pipelines of the project only, listed with server-side status filters.
+     */
+    private long getIdWhereParameter(String projectPath, String parameterName, String executionId) throws GitLabApiException {
+        GitLabHttpTransport transport = gitLabApiWrapper.getTransport();
+        RequestPriority priority = RequestPriority.current();
+        String pipelinesPath = "projects/" + GitLabHttpTransport.pathSegment(projectPath) + "/pipelines";
+        List<CompletableFuture<List<Pipeline>>> listings = Stream.of(RUNNING_STATUS, PENDING_STATUS)
+                .map(status -> transport.getAsync(priority, pipelinesPath, Map.of("status", status, "per_page", 100), PIPELINES))
+                .collect(Collectors.toList());
+
+        Map<Pipeline, CompletableFuture<List<Variable>>> pipelineVariables = new LinkedHashMap<>();
+        for (CompletableFuture<List<Pipeline>> listing : listings) {
+            GitLabHttpTransport.await(listing).forEach(pipeline -> pipelineVariables.put(pipeline,
+                    transport.getAsync(priority, pipelinesPath + "/" + pipeline.getId() + "/variables", Map.of(), PIPELINE_VARIABLES)));
+        }
+
+        for (Map.Entry<Pipeline, CompletableFuture<List<Variable>>> entry : pipelineVariables.entrySet()) {
+            try {
+                for (Variable variable : GitLabHttpTransport.await(entry.getValue())) {
+                    if (variable.getKey().equals(parameterName) && executionId.equals(variable.getValue())) {
+                        indexPipeline(projectPath, parameterName, executionId, entry.getKey());
+                        return entry.getKey().getId();
+                    }
+                }
+            } catch (GitLabApiException e) {
+                log.error("Failed to get parameters of the pipeline", e);
+            }
+        }
+        return NO_SUCH_PIPELINE;
     }
 
     private CIBuildStatus getCIBuildStatus(String statusStr) {
@@ -587,8 +671,4 @@ public class OctaneServices extends CIPluginServices {
         return CIBuildResult.UNAVAILABLE;
     }
 
-    private String getBuildCiId(Pipeline pipeline) {
-        return String.valueOf(pipeline.getId());
-    }
-
 }
@@ -29,67 +29,139 @@
 
 package com.microfocus.octane.gitlab.testresults;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.microfocus.octane.gitlab.helpers.GitLabApiWrapper;
 import com.microfocus.octane.gitlab.helpers.HooksHelper;
+import com.microfocus.octane.gitlab.helpers.RequestPriority;
+import com.microfocus.octane.gitlab.helpers.StateStore;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.gitlab4j.api.GitLabApi;
 import org.gitlab4j.api.GitLabApiException;
-import org.gitlab4j.api.models.AccessLevel;
 import org.gitlab4j.api.models.Project;
-import org.gitlab4j.api.models.ProjectFilter;
-import org.gitlab4j.api.models.User;
 
 import java.net.URL;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class HooksUpdateRunnable implements Runnable {
 
     static public final int INTERVAL = 60;
-    GitLabApi gitLabApi;
+    static final String CHECKPOINT_NAME = "hooksCheckpoint";
+    private static final TypeReference<Checkpoint> CHECKPOINT_TYPE = new TypeReference<>() {};
+    private static final long RETRY_DELAY_MILLIS = 2000;
+    private static final TypeReference<List<Project>> PROJECTS = new TypeReference<>() {};
+    GitLabApiWrapper gitLabApiWrapper;
     Date lastUpdateTime;
     private final URL  webhookURL;
-    private       long lastUpdatedProjectId = 0;
+    private final StateStore stateStore;
+    private final ExecutorService executor;
+    private final int retries;
+    private final boolean groupMode;
+    private volatile long lastUpdatedProjectId;
+    private final Set<Long> failedProjectIds = ConcurrentHashMap.newKeySet();
+    private final Set<CompletableFuture<?>> pendingTasks = ConcurrentHashMap.newKeySet();
+    private volatile Set<String> coveredGroups = new TreeSet<>();
+    private final AtomicLong scannedProjects = new AtomicLong();
+    private final AtomicLong reconciledProjects = new AtomicLong();
+    private final AtomicLong changedProjects = new AtomicLong();
+    private final AtomicLong failedProjects = new AtomicLong();
+    private final AtomicLong coveredProjects = new AtomicLong();
+    private final AtomicLong discoveredProjects = new AtomicLong();
+    private volatile Instant lastDiscoveryTime = Instant.now();
+    private volatile Long integrationUserId;
+    private volatile Date runStartTime;
+    private volatile Date runEndTime;
     static final Logger log = LogManager.getLogger(HooksUpdateRunnable.class);
 
-    public HooksUpdateRunnable(GitLabApiWrapper gitLabApiWrapper, URL webhookURL) {
+    /**
+     * @param executor    runs the reconciliation of the projects, as many at the same time as it has threads
+     * @param retries     number of further attempts for a project whose hooks could not be reconciled
+     * @param hooksMode   {@link HooksHelper#MODE_PROJECT} or {@link HooksHelper#MODE_GROUP}
+     */
+    public HooksUpdateRunnable(GitLabApiWrapper gitLabApiWrapper, URL webhookURL, StateStore stateStore,
+                               ExecutorService executor, int retries, String hooksMode) {
 
-        this.gitLabApi = gitLabApiWrapper.getGitLabApi();
+        this.gitLabApiWrapper = gitLabApiWrapper;
         this.lastUpdateTime = new Date(System.currentTimeMillis());
         this.webhookURL = webhookURL;
+        this.stateStore = stateStore;
+        this.executor = executor;
+        this.retries = Math.max(0, retries);
+        this.groupMode = HooksHelper.MODE_GROUP.equalsIgnoreCase(hooksMode);
+
+        Checkpoint checkpoint = stateStore.load(CHECKPOINT_NAME, CHECKPOINT_TYPE, Checkpoint::empty);
+        this.lastUpdatedProjectId = checkpoint.lastProjectId();
+        if (checkpoint.failedProjectIds() != null) {
+            this.failedProjectIds.addAll(checkpoint.failedProjectIds());
+        }
+        if (checkpoint.coveredGroups() != null) {
+            this.coveredGroups = new TreeSet<>(checkpoint.coveredGroups());
+        }
+        if (lastUpdatedProjectId > 0) {
+            log.info("Resuming the hook update after project id " + lastUpdatedProjectId + ", " + failedProjectIds.size()
+                    + " projects to retry");
+        }
+    }
+
+    /**
+     * Forgets the checkpoint, so the next run reconciles the hooks of all the projects again; used when the hooks
+     * have been deleted.
+     */
+    public static void clearCheckpoint(StateStore stateStore) {
+        stateStore.save(CHECKPOINT_NAME, Checkpoint.empty());
     }
 
     /*
     * This thread handles web-hooks.
     * The hook help to get events from GitLab. for example: running of pipeline, merge requests, etc...
     * Adding a hook for each project in order to support pull request flow and get the data from projects without Octane's pipeline
-    * Every time the thread starts, it scans for new projects and adds a new hook to each one
+    * Every time the thread starts, it scans for new projects and adds a new hook to each one.
+    * The projects of a page are reconciled in parallel; the id of the last project of a page is saved as a checkpoint
+    * once the whole page is done, so a restarted service continues from there.
     * */
     public void addHooksToNewProjects() {
 
         try {
+            reconcileSystemHook();
+            if (groupMode) {
+                reconcileGroupHooks();
+            }
 
-            ProjectFilter filter = new ProjectFilter().withIdAfter(lastUpdatedProjectId).withMembership(true)
-                    .withMinAccessLevel(AccessLevel.MAINTAINER);
-            List<Project> projects = gitLabApi.getProjectApi().getProjects(filter);
-
-            if (!projects.isEmpty()) {
-                projects.forEach(project -> {
-                    try {
-                        HooksHelper.addWebHookToProject(gitLabApi, webhookURL, project.getId(), true);
-                    } catch (GitLabApiException e) {
-                        log.warn("Failed to create GitLab web hooks", e);
-                    }
+            //projects that failed in an earlier run are tried again first
+            List<Long> retried = new ArrayList<>(failedProjectIds);
+            if (!retried.isEmpty()) {
+                scannedProjects.addAndGet(retried.size());
+                boolean done = reconcileAll(retried);
+                saveCheckpoint();
+                if (!done) {
+                    return;
+                }
+            }
 
-                });
+            Map<String, Object> filter = new HashMap<>(GitLabApiWrapper.MAINTAINED_PROJECTS);
+            filter.put("id_after", lastUpdatedProjectId);
+            gitLabApiWrapper.forEachProjectPage(filter, projects -> {
+                scannedProjects.addAndGet(projects.size());
+                List<Long> uncovered = projects.stream().filter(project -> !HooksHelper.isCoveredByGroupHook(project))
+                        .map(Project::getId).toList();
+                coveredProjects.addAndGet(projects.size() - uncovered.size());
+                boolean done = reconcileAll(uncovered);
 
-                long maxId = projects.stream()
-                        .max(Comparator.comparing(Project::getId))
-                        .orElseThrow(NoSuchElementException::new).getId();
-                //update the index of the last updated project.
-                lastUpdatedProjectId = Math.max(maxId, lastUpdatedProjectId);
-            }
+                //pages are ordered by id, update the index of the last updated project after each page.
+                //the projects of an interrupted page are kept as failed, so they are retried in the next run.
+                lastUpdatedProjectId = Math.max(projects.get(projects.size() - 1).getId(), lastUpdatedProjectId);
+                saveCheckpoint();
+                return done;
+            });
 
         } catch (GitLabApiException e) {
             log.error("Failed to get GitLab projects", e);
@@ -99,9 +171,227 @@ public class HooksUpdateRunnable implements Runnable {
         }
     }
 
+    /**
+     * In the group mode, the top level groups get a hook of their own. When a group is no longer covered, its
+     * projects need their own hooks again, so the scan starts over.
+     */
+    private void reconcileGroupHooks() throws GitLabApiException {
+        Set<String> covered = new TreeSet<>(HooksHelper.reconcileGroupWebHooks(gitLabApiWrapper, webhookURL));
+        if (!covered.containsAll(coveredGroups)) {
+            log.info("Some groups lost their web hook, the hooks of all the projects are checked again");
+            lastUpdatedProjectId = 0;
+        }
+        coveredGroups = covered;
+    }
+
+    /**
+     * In both modes, an administrator gets an instance hook for the project events, which are the only way the
+     * service learns about renamed, transferred and deleted projects.
+     */
+    private void reconcileSystemHook() {
+        try {
+            HooksHelper.reconcileSystemHook(gitLabApiWrapper, webhookURL);
+        } catch (GitLabApiException e) {
+            log.warn("Failed to reconcile the system hook", e);
+        }
+    }
+
+    /**
+     * Reconciles the hooks of a single project right away, when a project event reports a new project or new access
+     * to a project.
+     */
+    public void reconcileProjectAsync(Project project) {
+        if (HooksHelper.isCoveredByGroupHook(project) || HooksHelper.hasKnownWebHook(project.getId())) {
+            return;
+        }
+        if (executor.isShutdown()) {
+            return;
+        }
+        discoveredProjects.incrementAndGet();
+        try {
+            CompletableFuture.runAsync(() -> reconcile(project.getId()), executor);
+        } catch (RejectedExecutionException e) {
+            log.debug("The hooks of project " + project.getId() + " are not reconciled, the service is stopping");
+        }
+    }
+
+    /**
+     * Hooks the maintained projects that were active since the last discovery (GitLab sets the last activity when a
+     * project is created or used) and have no hook yet, whatever their id. Runs between the full scans.
+     */
+    public void discoverActiveProjects() {
+        Instant now = Instant.now();
+        Map<String, Object> filter = new HashMap<>(GitLabApiWrapper.MAINTAINED_PROJECTS);
+        //a margin for the clock differences between the service and GitLab
+        filter.put("last_activity_after", lastDiscoveryTime.minus(5, ChronoUnit.MINUTES).toString());
+        RequestPriority.BACKGROUND.run(() -> {
+            try {
+                gitLabApiWrapper.forEachProjectPage(filter, projects -> {
+                    discoverAll(projects);
+                    return true;
+                });
+                lastDiscoveryTime = now;
+            } catch (GitLabApiException e) {
+                log.warn("Failed to discover new GitLab projects", e);
+            }
+        });
+    }
+
+    /**
+     * Hooks the maintained projects of a group, when the integration user was added to it.
+     */
+    public void discoverGroupProjects(long groupId, long userId) {
+        try {
+            if (integrationUserId == null) {
+                integrationUserId = gitLabApiWrapper.execute(api -> api.getUserApi().getCurrentUser()).getId();
+            }
+            if (userId != integrationUserId) {
+                return;
+            }
+            List<Project> projects = gitLabApiWrapper.getTransport().getAllPagesCached("groups/" + groupId + "/projects",
+                    Map.of("include_subgroups", true, "min_access_level", 40, "simple", true), PROJECTS);
+            discoverAll(projects);
+        } catch (GitLabApiException e) {
+            log.warn("Failed to discover the projects of group " + groupId, e);
+        }
+    }
+
+    private void discoverAll(List<Project> projects) {
+        List<Long> unknown = projects.stream()
+                .filter(project -> !HooksHelper.isCoveredByGroupHook(project) && !HooksHelper.hasKnownWebHook(project.getId()))
+                .map(Project::getId).toList();
+        discoveredProjects.addAndGet(unknown.size());
+        reconcileAll(unknown);
+    }
+
+    /**
+     * Reconciles the hooks of the projects in parallel and waits for them. Returns false when the executor was shut
+     * down meanwhile; the projects that were not reconciled then count as failed, so the next run retries them.
+     */
+    private boolean reconcileAll(List<Long> projectIds) {
+        Set<Long> unfinished = ConcurrentHashMap.newKeySet();
+        unfinished.addAll(projectIds);
+        List<CompletableFuture<?>> tasks = new ArrayList<>();
+        try {
+            for (Long projectId : projectIds) {
+                if (executor.isShutdown()) {
+                    break;
+                }
+                CompletableFuture<?> task = CompletableFuture.runAsync(() -> RequestPriority.BACKGROUND.run(() -> {
+                    reconcile(projectId);
+                    unfinished.remove(projectId);
+                }), executor);
+                pendingTasks.add(task);
+                task.whenComplete((result, error) -> pendingTasks.remove(task));
+                if (executor.isShutdown()) {
+                    //shutdown() may have missed the task, the executor drops it without completing it
+                    task.cancel(false);
+                }
+                tasks.add(task);
+            }
+            CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+        } catch (RejectedExecutionException | CompletionException | CancellationException e) {
+            log.info("The hook update is interrupted, the service is stopping");
+        }
+        if (unfinished.isEmpty()) {
+            return true;
+        }
+        failedProjectIds.addAll(unfinished);
+        return false;
+    }
+
+    private void reconcile(long projectId) {
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            try {
+                if (HooksHelper.reconcileWebHook(gitLabApiWrapper, webhookURL, projectId)) {
+                    changedProjects.incrementAndGet();
+                }
+                reconciledProjects.incrementAndGet();
+                failedProjectIds.remove(projectId);
+                return;
+            } catch (GitLabApiException e) {
+                if (e.getHttpStatus() == 404) {
+                    //the project was deleted meanwhile
+                    reconciledProjects.incrementAndGet();
+                    failedProjectIds.remove(projectId);
+                    return;
+                }
+                if (attempt < retries) {
+                    try {
+                        Thread.sleep(RETRY_DELAY_MILLIS * (attempt + 1));
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                } else {
+                    log.warn("Failed to create GitLab web hooks of project " + projectId + ", it is retried in the next run", e);
+                }
+            }
+        }
+        failedProjects.incrementAndGet();
+        failedProjectIds.add(projectId);
+    }
+
+    private void saveCheckpoint() {
+        stateStore.save(CHECKPOINT_NAME, new Checkpoint(lastUpdatedProjectId, new TreeSet<>(failedProjectIds), coveredGroups));
+        HooksHelper.saveRegistry(stateStore, webhookURL);
+    }
+
+    /**
+     * The progress of the current (or last) run, reported in the {@code hooksUpdate} section of /status.
+     */
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long scanned = scannedProjects.get();
+        long reconciled = reconciledProjects.get();
+        long failed = failedProjects.get();
+        metrics.put("runStartTime", runStartTime);
+        metrics.put("runEndTime", runEndTime);
+        metrics.put("scannedProjects", scanned);
+        metrics.put("reconciledProjects", reconciled);
+        metrics.put("changedProjects", changedProjects.get());
+        metrics.put("failedProjects", failed);
+        metrics.put("coveredProjects", coveredProjects.get());
+        metrics.put("remainingProjects", scanned - reconciled - failed - coveredProjects.get());
+        if (groupMode) {
+            metrics.put("groupHooks", coveredGroups.size());
+        }
+        metrics.put("lastProjectId", lastUpdatedProjectId);
+        metrics.put("projectsToRetry", failedProjectIds.size());
+        metrics.put("discoveredProjects", discoveredProjects.get());
+        metrics.put("lastDiscoveryTime", Date.from(lastDiscoveryTime));
+        return metrics;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        //the queued tasks are dropped without completing their futures, cancel them so nobody waits for them
+        pendingTasks.forEach(task -> task.cancel(false));
+    }
+
     @Override
     public void run() {
         log.info("Start scanning for new projects and adding a hook.Last Updated Project Id =" +lastUpdatedProjectId);
-        addHooksToNewProjects();
+        runStartTime = new Date();
+        runEndTime = null;
+        scannedProjects.set(0);
+        reconciledProjects.set(0);
+        changedProjects.set(0);
+        failedProjects.set(0);
+        coveredProjects.set(0);
+        try {
+            RequestPriority.BACKGROUND.run(this::addHooksToNewProjects);
+        } finally {
+            runEndTime = new Date();
+            log.info("Hook update finished: " + reconciledProjects.get() + " projects reconciled, " + changedProjects.get()
+                    + " changed, " + failedProjects.get() + " failed");
+        }
+    }
+
+    record Checkpoint(long lastProjectId, Set<Long> failedProjectIds, Set<String> coveredGroups) {
+
+        static Checkpoint empty() {
+            return new Checkpoint(0, new TreeSet<>(), new TreeSet<>());
+        }
     }
 }
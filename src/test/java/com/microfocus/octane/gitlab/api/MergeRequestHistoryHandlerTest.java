@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.api;
+
+import com.hp.octane.integrations.dto.scm.PullRequest;
+import com.microfocus.octane.gitlab.app.ApplicationSettings;
+import com.microfocus.octane.gitlab.helpers.CommitDiffsFetcher;
+import com.microfocus.octane.gitlab.helpers.GitLabApiWrapper;
+import com.microfocus.octane.gitlab.helpers.GitLabCall;
+import com.microfocus.octane.gitlab.helpers.GitLabHttpTransport;
+import com.microfocus.octane.gitlab.helpers.ManagedExecutors;
+import com.microfocus.octane.gitlab.helpers.PullRequestBatcher;
+import com.microfocus.octane.gitlab.model.ConfigStructure;
+import org.gitlab4j.api.models.MergeRequest;
+import org.gitlab4j.api.models.Project;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MergeRequestHistoryHandlerTest {
+
+    private static final long PROJECT_ID = 7;
+    private static final Instant SAVED_WATERMARK = Instant.parse("2026-01-01T00:00:00Z");
+    private static final Instant FIRST_UPDATE = Instant.parse("2026-01-02T00:00:00Z");
+    private static final Instant SECOND_UPDATE = Instant.parse("2026-01-03T00:00:00Z");
+
+    @Rule
+    public TemporaryFolder historyFolder = new TemporaryFolder();
+
+    private final GitLabHttpTransport transport = mock(GitLabHttpTransport.class);
+    private final PullRequestBatcher pullRequestBatcher = mock(PullRequestBatcher.class);
+    private MergeRequestHistoryHandler handler;
+    private Path watermarkFile;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void createHandler() throws Exception {
+        ConfigStructure config = new ConfigStructure();
+        ReflectionTestUtils.setField(config, "mergeRequestHistoryFolderPath", historyFolder.getRoot().getAbsolutePath());
+        ReflectionTestUtils.setField(config, "mergeRequestsBackfillConcurrency", 1);
+
+        GitLabApiWrapper gitLabApiWrapper = mock(GitLabApiWrapper.class);
+        when(gitLabApiWrapper.getTransport()).thenReturn(transport);
+        when(gitLabApiWrapper.execute(any(GitLabCall.class))).thenReturn(List.of());
+        CommitDiffsFetcher commitDiffsFetcher = mock(CommitDiffsFetcher.class);
+        when(commitDiffsFetcher.fetch(any(), anyList())).thenReturn(new CommitDiffsFetcher.CommitDiffs(List.of(), Map.of(), 0));
+
+        handler = new MergeRequestHistoryHandler(gitLabApiWrapper, new ApplicationSettings(config), null,
+                commitDiffsFetcher, null, pullRequestBatcher, new ManagedExecutors());
+        watermarkFile = historyFolder.getRoot().toPath().resolve(Long.toString(PROJECT_ID));
+        Files.writeString(watermarkFile, SAVED_WATERMARK.toString());
+        when(transport.getAsync(any(), eq("projects/" + PROJECT_ID + "/merge_requests"), anyMap(), any()))
+                .thenReturn((CompletableFuture) CompletableFuture.completedFuture(
+                        List.of(mergeRequest(1, FIRST_UPDATE), mergeRequest(2, SECOND_UPDATE))));
+    }
+
+    @Test
+    public void watermarkDoesNotMoveWhenTheBatchFails() throws Exception {
+        rejectMergeRequests(Set.of("1", "2"));
+
+        sync();
+
+        assertEquals(SAVED_WATERMARK.toString(), Files.readString(watermarkFile));
+    }
+
+    @Test
+    public void watermarkMovesUpToTheLastAcceptedMergeRequest() throws Exception {
+        rejectMergeRequests(Set.of("2"));
+
+        sync();
+
+        assertEquals(FIRST_UPDATE.toString(), Files.readString(watermarkFile));
+    }
+
+    @Test
+    public void watermarkMovesOnceThePageIsAccepted() throws Exception {
+        rejectMergeRequests(Set.of());
+
+        MergeRequestHistoryHandler.ProjectBackfill backfill = handler.new ProjectBackfill(project(), "repo", "1001", SAVED_WATERMARK);
+        backfill.syncNextPage();
+
+        assertEquals(SECOND_UPDATE.toString(), Files.readString(watermarkFile));
+    }
+
+    private void sync() throws Exception {
+        MergeRequestHistoryHandler.ProjectBackfill backfill = handler.new ProjectBackfill(project(), "repo", "1001", SAVED_WATERMARK);
+        try {
+            backfill.syncNextPage();
+            fail("the page must fail when Octane did not accept a merge request");
+        } catch (IllegalStateException e) {
+            //expected, the project is synced again on the next start
+        }
+    }
+
+    private void rejectMergeRequests(Set<String> rejectedIds) {
+        when(pullRequestBatcher.add(anyString(), anyString(), any(PullRequest.class))).thenAnswer(invocation -> {
+            PullRequest pullRequest = invocation.getArgument(2);
+            return rejectedIds.contains(pullRequest.getId())
+                    ? CompletableFuture.failedFuture(new IllegalStateException("rejected"))
+                    : CompletableFuture.completedFuture(null);
+        });
+    }
+
+    private static Project project() {
+        Project project = new Project();
+        project.setId(PROJECT_ID);
+        return project;
+    }
+
+    private static MergeRequest mergeRequest(long iid, Instant updatedAt) {
+        MergeRequest mergeRequest = new MergeRequest();
+        mergeRequest.setId(100 + iid);
+        mergeRequest.setIid(iid);
+        mergeRequest.setUpdatedAt(Date.from(updatedAt));
+        return mergeRequest;
+    }
+}
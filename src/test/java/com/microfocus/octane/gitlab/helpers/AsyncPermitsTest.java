@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncPermitsTest {
+
+    @Test
+    public void permitsAreHandedOutUpToTheLimit() {
+        AsyncPermits permits = new AsyncPermits(2);
+
+        assertTrue(permits.acquire().isDone());
+        assertTrue(permits.acquire().isDone());
+        CompletableFuture<Void> waiting = permits.acquire();
+
+        assertFalse(waiting.isDone());
+        assertEquals(2, permits.inUse());
+        assertEquals(1, permits.queued());
+    }
+
+    @Test
+    public void releasedPermitGoesToTheWaitersInOrder() {
+        AsyncPermits permits = new AsyncPermits(1);
+        permits.acquire();
+        List<CompletableFuture<Void>> waiters = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            waiters.add(permits.acquire());
+        }
+
+        permits.release();
+        assertTrue(waiters.get(0).isDone());
+        assertFalse(waiters.get(1).isDone());
+
+        permits.release();
+        assertTrue(waiters.get(1).isDone());
+        assertFalse(waiters.get(2).isDone());
+        assertEquals(1, permits.inUse());
+    }
+
+    @Test
+    public void cancelledWaiterDoesNotTakeThePermit() {
+        AsyncPermits permits = new AsyncPermits(1);
+        permits.acquire();
+        CompletableFuture<Void> cancelled = permits.acquire();
+        CompletableFuture<Void> next = permits.acquire();
+        cancelled.cancel(false);
+
+        permits.release();
+
+        assertTrue(next.isDone());
+        assertFalse(next.isCancelled());
+        assertEquals(1, permits.inUse());
+        assertEquals(0, permits.queued());
+    }
+
+    @Test
+    public void permitIsReturnedWhenNobodyWaits() {
+        AsyncPermits permits = new AsyncPermits(0);
+        permits.acquire();
+
+        permits.release();
+
+        assertEquals(0, permits.inUse());
+        assertTrue(permits.acquire().isDone());
+    }
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CommitDiffsFetcherTest {
+
+    @Test
+    public void keepsThePathAndKindOfChangeOfEachFile() throws IOException {
+        List<CommitDiffsFetcher.FileChange> changes = read("[" +
+                "{\"old_path\": \"a.txt\", \"new_path\": \"a.txt\", \"new_file\": false, \"renamed_file\": false, \"deleted_file\": false, \"diff\": \"@@ -1 +1 @@\\n-a\\n+b\\n\"}," +
+                "{\"new_path\": \"b.txt\", \"new_file\": true, \"deleted_file\": false, \"diff\": \"+b\\n\"}," +
+                "{\"new_path\": \"c.txt\", \"new_file\": false, \"deleted_file\": true, \"diff\": \"-c\\n\"}]");
+
+        assertEquals(List.of(new CommitDiffsFetcher.FileChange("a.txt", false, false),
+                new CommitDiffsFetcher.FileChange("b.txt", true, false),
+                new CommitDiffsFetcher.FileChange("c.txt", false, true)), changes);
+        assertEquals("edit", changes.get(0).changeType());
+        assertEquals("add", changes.get(1).changeType());
+        assertEquals("delete", changes.get(2).changeType());
+    }
+
+    @Test
+    public void skipsDiffsWithEscapedQuotesAndBrackets() throws IOException {
+        //the patch comes first and looks like JSON itself
+        String diff = "+{\\\"new_path\\\": \\\"fake.txt\\\", \\\"new_file\\\": true}\\n-[\\\"]\\\", {]\\n+\\\\\\\"\\u00e9\\t}\\n";
+        List<CommitDiffsFetcher.FileChange> changes = read("[" +
+                "{\"diff\": \"" + diff + "\", \"new_path\": \"src/App.java\", \"new_file\": true}," +
+                "{\"diff\": \"\", \"new_path\": \"empty.txt\"}]");
+
+        assertEquals(List.of(new CommitDiffsFetcher.FileChange("src/App.java", true, false),
+                new CommitDiffsFetcher.FileChange("empty.txt", false, false)), changes);
+    }
+
+    @Test
+    public void skipsNestedObjectsAndArraysOfOtherFields() throws IOException {
+        List<CommitDiffsFetcher.FileChange> changes = read("[" +
+                "{\"a_mode\": \"100644\", \"extra\": {\"new_path\": \"nested.txt\", \"list\": [1, {\"deleted_file\": true}, [\"}\"]]}," +
+                " \"tags\": [], \"generated_file\": null, \"new_path\": \"real.txt\", \"deleted_file\": false}]");
+
+        assertEquals(List.of(new CommitDiffsFetcher.FileChange("real.txt", false, false)), changes);
+    }
+
+    @Test
+    public void emptyPageHasNoChanges() throws IOException {
+        assertTrue(read("[]").isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void responseThatIsNotAListIsRejected() throws IOException {
+        read("{\"message\": \"404 Not found\"}");
+    }
+
+    private static List<CommitDiffsFetcher.FileChange> read(String json) throws IOException {
+        return CommitDiffsFetcher.readFileChanges(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
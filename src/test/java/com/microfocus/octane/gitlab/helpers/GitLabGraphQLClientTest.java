@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import com.microfocus.octane.gitlab.model.ConfigStructure;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GitLabGraphQLClientTest {
+
+    private static final String RESPONSE = "{\"data\": {" +
+            "\"p0\": {\"id\": \"gid://gitlab/Project/42\", \"name\": \"app\", \"nameWithNamespace\": \"Team / Sub / app\"," +
+            " \"fullPath\": \"team/sub/app\", \"repository\": {\"rootRef\": \"main\"}," +
+            " \"ciVariables\": {\"nodes\": [{\"key\": \"publishToOctane\", \"value\": \"true\"}]}}," +
+            "\"p1\": null," +
+            "\"g0\": {\"fullPath\": \"team/sub\", \"ciVariables\": null}," +
+            "\"g1\": {\"fullPath\": \"team\", \"ciVariables\": {\"nodes\": [{\"key\": \"TEAM\", \"value\": \"a\"}]}}}}";
+
+    private static final String PAGED_RESPONSE = "{\"data\": {" +
+            "\"p0\": {\"id\": \"gid://gitlab/Project/7\", \"fullPath\": \"big/app\", \"repository\": null," +
+            " \"ciVariables\": {\"nodes\": [{\"key\": \"A\", \"value\": \"1\"}], \"pageInfo\": {\"hasNextPage\": true}}}," +
+            "\"g0\": {\"fullPath\": \"big\", \"ciVariables\": {\"nodes\": [], \"pageInfo\": {\"hasNextPage\": true}}}}}";
+
+    private HttpServer server;
+    private volatile String response = RESPONSE;
+    private GitLabHttpTransport transport;
+    private final AtomicReference<String> lastRequest = new AtomicReference<>();
+
+    @Before
+    public void startStandIn() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/graphql", exchange -> {
+            lastRequest.set(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            byte[] body = response.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        ConfigStructure config = new ConfigStructure();
+        ReflectionTestUtils.setField(config, "gitlabLocation", "http://localhost:" + server.getAddress().getPort());
+        transport = new GitLabHttpTransport(config, "token", new GitLabRateLimiter(config), null, null);
+    }
+
+    @After
+    public void stopStandIn() {
+        transport.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void fetchesProjectsAndAncestorGroupsInOneQuery() throws Exception {
+        GitLabGraphQLClient client = new GitLabGraphQLClient(transport, transport.getGitLabUri().resolve("api/graphql"));
+
+        GitLabGraphQLClient.ProjectsMetadata metadata = client.fetchProjects(List.of("team/sub/app", "team/missing"));
+
+        String query = new JSONObject(lastRequest.get()).getString("query");
+        assertTrue(query.contains("p0: project(fullPath: \"team/sub/app\")"));
+        assertTrue(query.contains("p1: project(fullPath: \"team/missing\")"));
+        assertTrue(query.contains("g0: group(fullPath: \"team/sub\")"));
+        assertTrue(query.contains("g1: group(fullPath: \"team\")"));
+        assertFalse(query.contains("g2:"));
+
+        GitLabGraphQLClient.ProjectMetadata project = metadata.projects().get("team/sub/app");
+        assertEquals(42, project.id());
+        assertEquals("main", project.defaultBranch());
+        assertEquals("publishToOctane", project.variables().get(0).getKey());
+        assertFalse(metadata.projects().containsKey("team/missing"));
+
+        assertEquals("a", metadata.groupVariables().get("team").get(0).getValue());
+        assertNull(metadata.groupVariables().get("team/sub"));
+    }
+
+    @Test
+    public void variablesThatDoNotFitInOnePageAreNotReturned() throws Exception {
+        response = PAGED_RESPONSE;
+        GitLabGraphQLClient client = new GitLabGraphQLClient(transport, transport.getGitLabUri().resolve("api/graphql"));
+
+        GitLabGraphQLClient.ProjectsMetadata metadata = client.fetchProjects(List.of("big/app"));
+
+        assertTrue(new JSONObject(lastRequest.get()).getString("query").contains("pageInfo { hasNextPage }"));
+        GitLabGraphQLClient.ProjectMetadata project = metadata.projects().get("big/app");
+        assertEquals(7, project.id());
+        assertNull(project.variables());
+        assertFalse(metadata.groupVariables().containsKey("big"));
+    }
+}
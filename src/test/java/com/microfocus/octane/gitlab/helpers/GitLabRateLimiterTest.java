@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import com.microfocus.octane.gitlab.model.ConfigStructure;
+import org.gitlab4j.api.GitLabApiException;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GitLabRateLimiterTest {
+
+    @Test
+    public void requestsBeyondTheBurstWaitForTheBucket() throws Exception {
+        GitLabRateLimiter limiter = limiter(4, 16, 0);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++) {
+            limiter.execute(null, RequestPriority.CRITICAL, api -> null, false);
+        }
+
+        //the burst is 4 requests, the 2 others wait a quarter of a second each
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 400);
+        assertEquals(6L, limiter.getMetrics().get("requests"));
+    }
+
+    @Test
+    public void requestsAreNotDelayedWithoutARate() throws Exception {
+        GitLabRateLimiter limiter = limiter(0, 16, 0);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            limiter.execute(null, RequestPriority.BACKGROUND, api -> null, false);
+        }
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+    }
+
+    @Test
+    public void requestsBeyondTheWindowWaitForARelease() {
+        GitLabRateLimiter limiter = limiter(0, 2, 0);
+
+        CompletableFuture<Void> first = limiter.acquireAsync(RequestPriority.CRITICAL);
+        CompletableFuture<Void> second = limiter.acquireAsync(RequestPriority.CRITICAL);
+        CompletableFuture<Void> third = limiter.acquireAsync(RequestPriority.CRITICAL);
+        assertTrue(first.isDone() && second.isDone());
+        assertFalse(third.isDone());
+
+        limiter.release(RequestPriority.CRITICAL, false);
+        assertTrue(third.isDone());
+        assertEquals(2, limiter.getMetrics().get("inFlight"));
+    }
+
+    @Test
+    public void throttlingHalvesTheWindowAndSuccessesGrowItBack() {
+        GitLabRateLimiter limiter = limiter(0, 8, 0);
+
+        limiter.acquireAsync(RequestPriority.CRITICAL).join();
+        limiter.release(RequestPriority.CRITICAL, true);
+        assertEquals(4, limiter.getMetrics().get("concurrencyLimit"));
+
+        //a burst of 429 answers halves the window once
+        limiter.acquireAsync(RequestPriority.CRITICAL).join();
+        limiter.release(RequestPriority.CRITICAL, true);
+        assertEquals(4, limiter.getMetrics().get("concurrencyLimit"));
+
+        //the window grows by one per window of successful requests
+        for (int i = 0; i < 5; i++) {
+            limiter.acquireAsync(RequestPriority.CRITICAL).join();
+            limiter.release(RequestPriority.CRITICAL, false);
+        }
+        assertEquals(5, limiter.getMetrics().get("concurrencyLimit"));
+    }
+
+    @Test
+    public void throttledRequestIsRetriedAfterABackoff() throws Exception {
+        GitLabRateLimiter limiter = limiter(0, 16, 2);
+        AtomicInteger attempts = new AtomicInteger();
+
+        long start = System.nanoTime();
+        String result = limiter.execute(null, RequestPriority.CRITICAL, api -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new GitLabApiException("Too Many Requests", 429);
+            }
+            return "ok";
+        }, false);
+
+        assertEquals("ok", result);
+        assertEquals(2, attempts.get());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+        assertEquals(1L, limiter.getMetrics().get("throttledResponses"));
+        assertEquals(1L, limiter.getMetrics().get("retries"));
+    }
+
+    @Test
+    public void throttledRequestFailsOnceTheRetriesAreUsedUp() throws Exception {
+        GitLabRateLimiter limiter = limiter(0, 16, 0);
+        AtomicInteger attempts = new AtomicInteger();
+
+        try {
+            limiter.execute(null, RequestPriority.CRITICAL, api -> {
+                attempts.incrementAndGet();
+                throw new GitLabApiException("Too Many Requests", 429);
+            }, false);
+            fail("the throttled request must fail");
+        } catch (GitLabApiException e) {
+            assertEquals(429, e.getHttpStatus());
+        }
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void serverErrorsAreRetriedOnlyWhenAllowed() {
+        GitLabRateLimiter limiter = limiter(0, 16, 1);
+
+        assertFalse(limiter.shouldRetry(503, false, 0));
+        assertTrue(limiter.shouldRetry(503, true, 0));
+        assertFalse(limiter.shouldRetry(503, true, 1));
+        assertFalse(limiter.shouldRetry(404, true, 0));
+    }
+
+    @Test
+    public void retryAfterPausesTheRequests() throws Exception {
+        GitLabRateLimiter limiter = limiter(0, 16, 0);
+
+        limiter.onRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT");
+        assertFalse(limiter.getMetrics().containsKey("pausedUntil"));
+
+        limiter.onRetryAfter("1");
+        assertTrue(limiter.getMetrics().containsKey("pausedUntil"));
+        long start = System.nanoTime();
+        limiter.execute(null, RequestPriority.CRITICAL, api -> null, false);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 900);
+    }
+
+    @Test
+    public void backoffGrowsExponentiallyUpToItsCap() {
+        for (int i = 0; i < 20; i++) {
+            long first = GitLabRateLimiter.backoff(0);
+            assertTrue(first >= 250 && first <= 500);
+            long third = GitLabRateLimiter.backoff(2);
+            assertTrue(third >= 1000 && third <= 2000);
+            long capped = GitLabRateLimiter.backoff(30);
+            assertTrue(capped >= 15000 && capped <= 30000);
+        }
+    }
+
+    private static GitLabRateLimiter limiter(double requestsPerSecond, int maxConcurrency, int maxRetries) {
+        ConfigStructure config = new ConfigStructure();
+        ReflectionTestUtils.setField(config, "rateLimitRequestsPerSecond", requestsPerSecond);
+        ReflectionTestUtils.setField(config, "rateLimitBackgroundShare", 0.5);
+        ReflectionTestUtils.setField(config, "rateLimitMaxConcurrency", maxConcurrency);
+        ReflectionTestUtils.setField(config, "rateLimitMaxRetries", maxRetries);
+        return new GitLabRateLimiter(config);
+    }
+}
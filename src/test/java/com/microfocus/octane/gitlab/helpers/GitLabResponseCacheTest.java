@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.microfocus.octane.gitlab.model.ConfigStructure;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GitLabResponseCacheTest {
+
+    private static final TypeReference<Map<String, Object>> PROJECT = new TypeReference<>() {};
+
+    @Test
+    public void notModifiedEntryReturnsTheParsedValue() {
+        GitLabResponseCache cache = new GitLabResponseCache(10, 1024 * 1024);
+        Object value = new Object();
+        cache.store("projects/1", "\"v1\"", "{\"id\": 1}".getBytes(StandardCharsets.UTF_8), value, null);
+
+        GitLabResponseCache.Entry entry = cache.lookup("projects/1");
+
+        assertEquals("\"v1\"", entry.etag);
+        assertSame(value, cache.notModified(entry, body -> {
+            fail("the body must not be parsed again");
+            return null;
+        }));
+        assertEquals(1L, cache.getMetrics().get("notModified"));
+    }
+
+    @Test
+    public void collectedValueIsParsedAgainFromTheBody() {
+        GitLabResponseCache cache = new GitLabResponseCache(10, 1024 * 1024);
+        cache.store("projects/1", "\"v1\"", "{\"id\": 1}".getBytes(StandardCharsets.UTF_8), new Object(), 2);
+        GitLabResponseCache.Entry entry = cache.lookup("projects/1");
+        entry.value = new SoftReference<>(null);
+
+        String value = cache.notModified(entry, body -> new String(body, StandardCharsets.UTF_8));
+
+        assertEquals("{\"id\": 1}", value);
+        assertEquals(2, (int) entry.nextPage);
+        assertEquals(1L, cache.getMetrics().get("reparsed"));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvictedBeyondTheMaximumEntries() {
+        GitLabResponseCache cache = new GitLabResponseCache(2, 1024 * 1024);
+        cache.store("a", "1", new byte[10], "a", null);
+        cache.store("b", "1", new byte[10], "b", null);
+        cache.lookup("a");
+        cache.store("c", "1", new byte[10], "c", null);
+
+        assertNotNull(cache.lookup("a"));
+        assertNull(cache.lookup("b"));
+        assertNotNull(cache.lookup("c"));
+        assertEquals(2, cache.getMetrics().get("entries"));
+    }
+
+    @Test
+    public void eldestEntriesAreEvictedBeyondTheMaximumBytes() {
+        GitLabResponseCache cache = new GitLabResponseCache(100, 2500);
+        cache.store("a", "1", randomBytes(1000, 1), "a", null);
+        cache.store("b", "1", randomBytes(1000, 2), "b", null);
+        cache.store("c", "1", randomBytes(1000, 3), "c", null);
+
+        assertNull(cache.lookup("a"));
+        assertNotNull(cache.lookup("b"));
+        assertNotNull(cache.lookup("c"));
+        assertTrue((long) cache.getMetrics().get("storedBytes") <= 2500);
+
+        //a body larger than the whole cache is not stored and does not evict the others
+        cache.store("d", "1", randomBytes(5000, 4), "d", null);
+        assertNull(cache.lookup("d"));
+        assertNotNull(cache.lookup("c"));
+    }
+
+    @Test
+    public void cachedReadIsRevalidatedWithItsETag() throws Exception {
+        AtomicReference<String> ifNoneMatch = new AtomicReference<>();
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/v4/projects/1", exchange -> {
+            requests.incrementAndGet();
+            ifNoneMatch.set(exchange.getRequestHeaders().getFirst("If-None-Match"));
+            if ("\"v1\"".equals(ifNoneMatch.get())) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = "{\"id\": 1, \"name\": \"app\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        ConfigStructure config = new ConfigStructure();
+        ReflectionTestUtils.setField(config, "gitlabLocation", "http://localhost:" + server.getAddress().getPort());
+        ReflectionTestUtils.setField(config, "responseCacheMaxEntries", 10);
+        ReflectionTestUtils.setField(config, "responseCacheMaxMegabytes", 1);
+        GitLabHttpTransport transport = new GitLabHttpTransport(config, "token", new GitLabRateLimiter(config), null, null);
+        try {
+            Map<String, Object> first = transport.getCached("projects/1", Map.of(), PROJECT);
+            assertNull(ifNoneMatch.get());
+
+            Map<String, Object> second = transport.getCached("projects/1", Map.of(), PROJECT);
+
+            assertEquals(2, requests.get());
+            assertEquals("\"v1\"", ifNoneMatch.get());
+            assertSame(first, second);
+            assertEquals("app", second.get("name"));
+            assertEquals(1L, transport.getResponseCacheMetrics().get("notModified"));
+        } finally {
+            transport.close();
+            server.stop(0);
+        }
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
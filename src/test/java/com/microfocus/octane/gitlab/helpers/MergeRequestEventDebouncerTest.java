@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MergeRequestEventDebouncerTest {
+
+    private final List<String> handled = new CopyOnWriteArrayList<>();
+    private MergeRequestEventDebouncer debouncer;
+
+    @Before
+    public void startDebouncer() {
+        debouncer = new MergeRequestEventDebouncer(200, new ManagedExecutors());
+        ReflectionTestUtils.invokeMethod(debouncer, "init");
+    }
+
+    @After
+    public void stopDebouncer() {
+        ReflectionTestUtils.invokeMethod(debouncer, "stop");
+    }
+
+    @Test
+    public void eventsOfTheWindowAreHandledOnce() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        debouncer.submit(1, 7, false, commitsChanged -> handled.add("title " + commitsChanged));
+        debouncer.submit(1, 7, true, commitsChanged -> handled.add("push " + commitsChanged));
+        debouncer.submit(1, 7, false, commitsChanged -> {
+            handled.add("labels " + commitsChanged);
+            done.countDown();
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        Thread.sleep(300);
+        //the latest handler runs, told that one of the events changed the commits
+        assertEquals(List.of("labels true"), handled);
+        assertEquals(3L, debouncer.getMetrics().get("receivedEvents"));
+        assertEquals(2L, debouncer.getMetrics().get("coalescedEvents"));
+    }
+
+    @Test
+    public void updateWaitsForTheRunningOne() throws Exception {
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        debouncer.submit(1, 7, false, commitsChanged -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            handled.add("first");
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        debouncer.submit(1, 7, true, commitsChanged -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            handled.add("second");
+            active.decrementAndGet();
+            done.countDown();
+        });
+
+        //well past the window of the second event, it still waits for the first run
+        Thread.sleep(500);
+        assertEquals(List.of("first"), handled);
+        assertEquals(1, debouncer.getMetrics().get("runningUpdates"));
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("first", "second"), handled);
+        assertEquals(1, maxActive.get());
+    }
+
+    @Test
+    public void mergeRequestsAreHandledInParallel() throws Exception {
+        CountDownLatch bothRunning = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(2);
+        for (long iid = 1; iid <= 2; iid++) {
+            long mergeRequestIid = iid;
+            debouncer.submit(1, mergeRequestIid, false, commitsChanged -> {
+                bothRunning.countDown();
+                try {
+                    if (bothRunning.await(5, TimeUnit.SECONDS)) {
+                        handled.add("merge request " + mergeRequestIid);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, handled.size());
+    }
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import com.microfocus.octane.gitlab.app.ApplicationSettings;
+import com.microfocus.octane.gitlab.model.ConfigStructure;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PipelineParameterIndexTest {
+
+    private static final String EXECUTION_ID = PipelineParameterIndex.INDEXED_PARAMETER;
+
+    @Rule
+    public TemporaryFolder stateFolder = new TemporaryFolder();
+
+    private ApplicationSettings applicationSettings;
+    private ManagedExecutors managedExecutors;
+    private PipelineParameterIndex index;
+
+    @Before
+    public void createIndex() {
+        ConfigStructure config = new ConfigStructure();
+        ReflectionTestUtils.setField(config, "stateFolderPath", stateFolder.getRoot().getAbsolutePath());
+        ReflectionTestUtils.setField(config, "pipelineIndexMaxEntries", 2);
+        applicationSettings = new ApplicationSettings(config);
+        managedExecutors = new ManagedExecutors();
+        index = start();
+    }
+
+    @After
+    public void stopIndex() {
+        ReflectionTestUtils.invokeMethod(index, "stop");
+    }
+
+    @Test
+    public void findsThePipelineByProjectAndValue() {
+        index.put("Team/App", EXECUTION_ID, "1001", pipeline(10, "running"));
+
+        assertEquals(10, index.find("team/app", EXECUTION_ID, "1001").orElseThrow().pipelineId());
+        assertFalse(index.find("team/app", EXECUTION_ID, "1002").isPresent());
+        assertFalse(index.find("team/other", EXECUTION_ID, "1001").isPresent());
+    }
+
+    @Test
+    public void olderPipelineDoesNotReplaceANewerOne() {
+        index.put("team/app", EXECUTION_ID, "1001", pipeline(11, "running"));
+        index.put("team/app", EXECUTION_ID, "1001", pipeline(10, "success"));
+        assertEquals(11, index.find("team/app", EXECUTION_ID, "1001").orElseThrow().pipelineId());
+
+        index.put("team/app", EXECUTION_ID, "1001", pipeline(11, "success"));
+        assertTrue(index.find("team/app", EXECUTION_ID, "1001").orElseThrow().isFinished());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        index.put("team/app", EXECUTION_ID, "1", pipeline(1, "running"));
+        index.put("team/app", EXECUTION_ID, "2", pipeline(2, "running"));
+        index.find("team/app", EXECUTION_ID, "1");
+        index.put("team/app", EXECUTION_ID, "3", pipeline(3, "running"));
+
+        assertTrue(index.find("team/app", EXECUTION_ID, "1").isPresent());
+        assertFalse(index.find("team/app", EXECUTION_ID, "2").isPresent());
+        assertTrue(index.find("team/app", EXECUTION_ID, "3").isPresent());
+    }
+
+    @Test
+    public void onlyTheExecutionIdOfAPipelineEventIsIndexed() {
+        JSONObject event = new JSONObject()
+                .put("project", new JSONObject().put("path_with_namespace", "team/app"))
+                .put("object_attributes", new JSONObject().put("id", 12).put("ref", "main").put("status", "pending")
+                        .put("variables", new JSONArray()
+                                .put(new JSONObject().put("key", EXECUTION_ID).put("value", "1001"))
+                                .put(new JSONObject().put("key", "testsToRun").put("value", "a,b,c"))));
+
+        index.onPipelineEvent(event);
+
+        PipelineParameterIndex.IndexedPipeline pipeline = index.find("team/app", EXECUTION_ID, "1001").orElseThrow();
+        assertEquals(12, pipeline.pipelineId());
+        assertEquals("main", pipeline.ref());
+        assertFalse(index.find("team/app", "testsToRun", "a,b,c").isPresent());
+    }
+
+    @Test
+    public void entriesSurviveARestart() {
+        index.put("team/app", EXECUTION_ID, "1001", pipeline(10, "success"));
+        ReflectionTestUtils.invokeMethod(index, "stop");
+
+        index = start();
+
+        PipelineParameterIndex.IndexedPipeline pipeline = index.find("team/app", EXECUTION_ID, "1001").orElseThrow();
+        assertEquals(10, pipeline.pipelineId());
+        assertEquals("success", pipeline.status());
+        assertTrue(pipeline.isFinished());
+    }
+
+    private PipelineParameterIndex start() {
+        PipelineParameterIndex started = new PipelineParameterIndex(applicationSettings, new StateStore(applicationSettings),
+                managedExecutors);
+        ReflectionTestUtils.invokeMethod(started, "init");
+        return started;
+    }
+
+    private static PipelineParameterIndex.IndexedPipeline pipeline(long id, String status) {
+        return new PipelineParameterIndex.IndexedPipeline(id, "main", status, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import com.hp.octane.integrations.dto.DTOFactory;
+import com.hp.octane.integrations.dto.scm.PullRequest;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PullRequestBatcherTest {
+
+    private static final String REPO = "https://gitlab.example.com/team/app.git";
+
+    private final List<List<String>> sentBatches = new CopyOnWriteArrayList<>();
+    private PullRequestBatcher batcher;
+
+    @After
+    public void stopBatcher() {
+        if (batcher != null) {
+            ReflectionTestUtils.invokeMethod(batcher, "stop");
+        }
+    }
+
+    @Test
+    public void fullBatchIsSubmittedRightAway() throws Exception {
+        start(2, TimeUnit.MINUTES.toMillis(10), null);
+
+        CompletableFuture<Void> first = batcher.add(REPO, "1001", pullRequest("1", "first"));
+        assertFalse(first.isDone());
+        CompletableFuture<Void> second = batcher.add(REPO, "1001", pullRequest("2", "second"));
+
+        CompletableFuture.allOf(first, second).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(List.of("1", "2")), sentBatches);
+    }
+
+    @Test
+    public void batchIsSubmittedAfterTheFlushTime() throws Exception {
+        start(100, 200, null);
+
+        CompletableFuture<Void> outcome = batcher.add(REPO, "1001", pullRequest("1", "first"));
+        assertTrue(sentBatches.isEmpty());
+
+        outcome.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(List.of("1")), sentBatches);
+    }
+
+    @Test
+    public void laterVersionReplacesTheWaitingOne() throws Exception {
+        start(100, 200, null);
+
+        CompletableFuture<Void> older = batcher.add(REPO, "1001", pullRequest("1", "draft"));
+        CompletableFuture<Void> newer = batcher.add(REPO, "1001", pullRequest("1", "ready"));
+
+        CompletableFuture.allOf(older, newer).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(List.of("1")), sentBatches);
+        assertEquals(1L, batcher.getMetrics().get("submittedPullRequests"));
+    }
+
+    @Test
+    public void failingBatchIsSplitDownToTheRejectedPullRequest() throws Exception {
+        start(4, TimeUnit.MINUTES.toMillis(10), "3");
+
+        List<CompletableFuture<Void>> outcomes = List.of(batcher.add(REPO, "1001", pullRequest("1", "a")),
+                batcher.add(REPO, "1001", pullRequest("2", "b")), batcher.add(REPO, "1001", pullRequest("3", "c")),
+                batcher.add(REPO, "1001", pullRequest("4", "d")));
+
+        outcomes.get(0).get(30, TimeUnit.SECONDS);
+        outcomes.get(1).get(30, TimeUnit.SECONDS);
+        outcomes.get(3).get(30, TimeUnit.SECONDS);
+        try {
+            outcomes.get(2).get(30, TimeUnit.SECONDS);
+            fail("the rejected pull request must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("pull request 3"));
+        }
+        //the halves are not retried: [1, 2] is sent, [3, 4] is split again
+        assertEquals(List.of(List.of("1", "2"), List.of("4")), sentBatches);
+        assertEquals(1L, batcher.getMetrics().get("failedPullRequests"));
+        assertEquals(2L, batcher.getMetrics().get("retries"));
+    }
+
+    private void start(int batchSize, long flushMillis, String rejectedId) {
+        batcher = new PullRequestBatcher(batchSize, flushMillis, new ManagedExecutors(), () -> List.of((pullRequests, workspace, parameters) -> {
+            List<String> ids = pullRequests.stream().map(PullRequest::getId).toList();
+            if (ids.contains(rejectedId)) {
+                throw new IllegalArgumentException("Octane rejected pull request " + rejectedId);
+            }
+            sentBatches.add(ids);
+        }));
+        ReflectionTestUtils.invokeMethod(batcher, "init");
+    }
+
+    private static PullRequest pullRequest(String id, String title) {
+        return DTOFactory.getInstance().newDTO(PullRequest.class).setId(id).setTitle(title);
+    }
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import org.gitlab4j.api.models.Branch;
+import org.gitlab4j.api.models.Tag;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.endsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RefCatalogTest {
+
+    private RefCatalog.RefIndex index;
+
+    @Before
+    public void createIndex() {
+        index = new RefCatalog.RefIndex();
+        for (String name : List.of("main", "Master", "feature/login", "feature/LOGOUT", "release/1.0", "hotfix/main-fix")) {
+            index.add(name);
+        }
+    }
+
+    @Test
+    public void emptySearchReturnsAllTheRefsSorted() {
+        assertEquals(List.of("feature/login", "feature/LOGOUT", "hotfix/main-fix", "main", "Master", "release/1.0"),
+                index.find(null));
+        assertEquals(6, index.find("").size());
+    }
+
+    @Test
+    public void caretMatchesTheRefsThatBeginWithTheTerm() {
+        assertEquals(List.of("feature/login", "feature/LOGOUT"), index.find("^feature/"));
+        assertEquals(List.of("feature/login", "feature/LOGOUT"), index.find("^FEATURE/LOG"));
+        assertEquals(List.of("main", "Master"), index.find("^ma"));
+        //a ref that contains the term elsewhere is left out
+        assertEquals(List.of("main"), index.find("^main"));
+    }
+
+    @Test
+    public void dollarMatchesTheRefsThatEndWithTheTerm() {
+        assertEquals(List.of("hotfix/main-fix"), index.find("fix$"));
+        assertEquals(List.of("feature/LOGOUT"), index.find("OUT$"));
+    }
+
+    @Test
+    public void caretAndDollarMatchTheWholeName() {
+        assertEquals(List.of("main"), index.find("^main$"));
+        assertTrue(index.find("^feature$").isEmpty());
+    }
+
+    @Test
+    public void otherTermsMatchTheRefsThatContainThem() {
+        assertEquals(List.of("hotfix/main-fix", "main"), index.find("main"));
+        assertEquals(List.of("feature/login", "feature/LOGOUT"), index.find("LOG"));
+        assertTrue(index.find("develop").isEmpty());
+    }
+
+    @Test
+    public void namesDifferingInCaseAreAllKept() {
+        index.add("Main");
+
+        assertEquals(List.of("Main", "main"), index.find("^main$"));
+    }
+
+    @Test
+    public void removedRefIsNoLongerFound() {
+        index.remove("feature/login");
+        index.remove("FEATURE/LOGOUT");
+
+        assertEquals(List.of("feature/LOGOUT"), index.find("^feature/"));
+    }
+
+    @Test
+    public void pushesReceivedDuringTheFirstReadAreApplied() throws Exception {
+        GitLabApiWrapper gitLabApiWrapper = mock(GitLabApiWrapper.class);
+        GitLabHttpTransport transport = mock(GitLabHttpTransport.class);
+        when(gitLabApiWrapper.getTransport()).thenReturn(transport);
+        CompletableFuture<List<Branch>> branches = new CompletableFuture<>();
+        CountDownLatch reading = new CountDownLatch(1);
+        doReturn(branches).when(transport).getAllPagesCachedAsync(any(), endsWith("/branches"), anyMap(), any());
+        doAnswer(invocation -> {
+            reading.countDown();
+            return CompletableFuture.completedFuture(List.<Tag>of());
+        }).when(transport).getAllPagesCachedAsync(any(), endsWith("/tags"), anyMap(), any());
+        RefCatalog catalog = new RefCatalog(gitLabApiWrapper);
+
+        CompletableFuture<List<String>> found = CompletableFuture.supplyAsync(() -> {
+            try {
+                return catalog.findBranches("team/app", null);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+        //the listing was taken before these pushes
+        catalog.onPushEvent(push("refs/heads/feature/new", "1234567890123456789012345678901234567890"));
+        catalog.onPushEvent(push("refs/heads/old", "0000000000000000000000000000000000000000"));
+        branches.complete(List.of(branch("main"), branch("old")));
+
+        assertEquals(List.of("feature/new", "main"), found.get(5, TimeUnit.SECONDS));
+        //the events after the read go to the loaded refs
+        catalog.onPushEvent(push("refs/heads/feature/other", "1234567890123456789012345678901234567890"));
+        assertEquals(List.of("feature/new", "feature/other", "main"), catalog.findBranches("team/app", null));
+    }
+
+    private static Branch branch(String name) {
+        Branch branch = new Branch();
+        branch.setName(name);
+        return branch;
+    }
+
+    private static JSONObject push(String ref, String after) {
+        return new JSONObject().put("object_kind", "push").put("ref", ref).put("after", after)
+                .put("project", new JSONObject().put("path_with_namespace", "Team/App"));
+    }
+}
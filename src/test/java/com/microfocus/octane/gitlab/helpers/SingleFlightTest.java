@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright 2017-2023 Open Text.
+ *
+ * The only warranties for products and services of Open Text and
+ * its affiliates and licensors (“Open Text”) are as may be set forth
+ * in the express warranty statements accompanying such products and services.
+ * Nothing herein should be construed as constituting an additional warranty.
+ * Open Text shall not be liable for technical or editorial errors or
+ * omissions contained herein. The information contained herein is subject
+ * to change without notice.
+ *
+ * Except as specifically indicated otherwise, this document contains
+ * confidential information and a valid license is required for possession,
+ * use or copying. If this work is provided to the U.S. Government,
+ * consistent with FAR 12.211 and 12.212, Commercial Computer Software,
+ * Computer Software Documentation, and Technical Data for Commercial Items are
+ * licensed to the U.S. Government under vendor's standard commercial license.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.microfocus.octane.gitlab.helpers;
+
+import org.gitlab4j.api.GitLabApiException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentCallersShareOneCall() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Object value = new Object();
+
+        Future<Object> first = executor.submit(() -> singleFlight.execute("project", 1, RequestPriority.CRITICAL, () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            await(release);
+            return value;
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<Object> second = executor.submit(() -> singleFlight.execute("project", 1, RequestPriority.CRITICAL, () -> {
+            calls.incrementAndGet();
+            return new Object();
+        }));
+        awaitCollapsed(1);
+        release.countDown();
+
+        assertSame(value, first.get(5, TimeUnit.SECONDS));
+        assertSame(value, second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void failureIsPropagatedToAllCallers() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<Object> first = executor.submit(() -> singleFlight.execute("project", 1, RequestPriority.CRITICAL, () -> {
+            started.countDown();
+            await(release);
+            throw new GitLabApiException("not found", 404);
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<Object> second = executor.submit(() -> singleFlight.execute("project", 1, RequestPriority.CRITICAL,
+                () -> new Object()));
+        awaitCollapsed(1);
+        release.countDown();
+
+        assertGitLabFailure(first, 404);
+        assertGitLabFailure(second, 404);
+    }
+
+    @Test
+    public void asyncCallersShareOneFutureAndItsFailure() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> read = new CompletableFuture<>();
+
+        CompletableFuture<String> first = singleFlight.executeAsync("cachedRead", "url", RequestPriority.CRITICAL, () -> {
+            calls.incrementAndGet();
+            return read;
+        });
+        CompletableFuture<String> second = singleFlight.executeAsync("cachedRead", "url", RequestPriority.CRITICAL, () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        second.cancel(true);
+        read.complete("value");
+
+        assertEquals("value", first.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+
+        CompletableFuture<String> failing = singleFlight.executeAsync("cachedRead", "url", RequestPriority.CRITICAL,
+                () -> CompletableFuture.failedFuture(new GitLabApiException("gone", 410)));
+        try {
+            failing.get(5, TimeUnit.SECONDS);
+            fail("the failure of the read was expected");
+        } catch (ExecutionException e) {
+            assertEquals(410, ((GitLabApiException) e.getCause()).getHttpStatus());
+        }
+    }
+
+    @Test
+    public void criticalCallerDoesNotJoinBackgroundRead() throws Exception {
+        CompletableFuture<String> backgroundRead = new CompletableFuture<>();
+        CompletableFuture<String> background = singleFlight.executeAsync("cachedRead", "url", RequestPriority.BACKGROUND,
+                () -> backgroundRead);
+        CompletableFuture<String> critical = singleFlight.executeAsync("cachedRead", "url", RequestPriority.CRITICAL,
+                () -> CompletableFuture.completedFuture("critical"));
+
+        assertEquals("critical", critical.get(5, TimeUnit.SECONDS));
+        backgroundRead.complete("background");
+        assertEquals("background", background.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void backgroundCallerJoinsCriticalRead() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> criticalRead = new CompletableFuture<>();
+        CompletableFuture<String> critical = singleFlight.executeAsync("cachedRead", "url", RequestPriority.CRITICAL, () -> {
+            calls.incrementAndGet();
+            return criticalRead;
+        });
+        CompletableFuture<String> background = singleFlight.executeAsync("cachedRead", "url", RequestPriority.BACKGROUND, () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        criticalRead.complete("value");
+
+        assertEquals("value", critical.get(5, TimeUnit.SECONDS));
+        assertEquals("value", background.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+    }
+
+    private static void await(CountDownLatch latch) throws GitLabApiException {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new GitLabApiException("the test did not release the call");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GitLabApiException("interrupted");
+        }
+    }
+
+    private void awaitCollapsed(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (((Number) singleFlight.getMetrics().get("collapsed")).longValue() < expected) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("the second caller did not join the call in flight");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void assertGitLabFailure(Future<Object> future, int status) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("the failure of the call was expected");
+        } catch (ExecutionException e) {
+            assertEquals(status, ((GitLabApiException) e.getCause()).getHttpStatus());
+        }
+    }
+}